@@ -33,6 +33,10 @@ android {
     kotlinOptions {
         jvmTarget = "11"
     }
+    testOptions {
+        // android.util.Log calls in the ASR utilities become no-ops in local unit tests
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
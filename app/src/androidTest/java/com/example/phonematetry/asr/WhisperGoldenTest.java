@@ -0,0 +1,354 @@
+package com.example.phonematetry.asr;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.phonematetry.utils.WavReader;
+import com.example.phonematetry.utils.WhisperUtil;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Regression and latency suite for the Whisper pipeline on the bundled WAV assets.
+ *
+ * Golden outputs live in androidTest/assets/asr_golden.json: per file an optional expected
+ * transcript and a digest of the normalised mel tensor (mean of every 100-frame block of every
+ * band). The full pipeline test also writes a JSON report with per-stage latency to the app's
+ * external files dir (asr_golden_report.json).
+ *
+ * Only jfk.wav has a transcript golden. The other assets are ad-hoc recordings with no
+ * reference transcript, and a transcript recorded from this pipeline would only pin whatever
+ * the model currently outputs, errors included. For those files the pipeline test checks that
+ * the transcript is deterministic and that transcribeFile agrees with transcribeBuffer, and the
+ * mel digest guards the front-end. Once a human-checked transcript exists, add it to their entry
+ * and it is compared like jfk.wav's.
+ *
+ * Pass -e recordGolden true to additionally write asr_golden_recorded.json next to the report,
+ * holding the current outputs in the golden format, e.g. after a model change.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WhisperGoldenTest {
+    private static final String TAG = "WhisperGoldenTest";
+
+    private static final String GOLDEN_ASSET = "asr_golden.json";
+    private static final String VOCAB_ASSET = "filters_vocab_en.bin";
+    private static final String MODEL_NAME = "whisper-tiny.en.tflite";
+    private static final String REPORT_FILE = "asr_golden_report.json";
+    private static final String RECORDED_FILE = "asr_golden_recorded.json";
+
+    private static final int N_MEL = WhisperUtil.WHISPER_N_MEL;
+    private static final int MEL_LEN = WhisperUtil.WHISPER_MEL_LEN;
+    // Timed runs per file, after one warm-up run
+    private static final int RUNS = 5;
+
+    private Context appContext;
+    private JSONObject golden;
+    private boolean record;
+
+    @Before
+    public void setUp() throws IOException, JSONException {
+        appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        Context testContext = InstrumentationRegistry.getInstrumentation().getContext();
+        try (InputStream in = testContext.getAssets().open(GOLDEN_ASSET)) {
+            golden = new JSONObject(new String(readAll(in), StandardCharsets.UTF_8));
+        }
+        Bundle args = InstrumentationRegistry.getArguments();
+        record = "true".equals(args.getString("recordGolden"));
+    }
+
+    @Test
+    public void melSpectrogramMatchesGolden() throws Exception {
+        WhisperUtil whisperUtil = new WhisperUtil();
+        assertTrue(whisperUtil.loadFiltersAndVocab(false, copyAsset(VOCAB_ASSET).getPath()));
+
+        FloatBuffer mel = FloatBuffer.allocate(N_MEL * MEL_LEN);
+        float[] values = new float[N_MEL * MEL_LEN];
+        List<String> failures = new ArrayList<>();
+        try {
+            for (String name : wavAssets()) {
+                float[] samples = readWav(name);
+                mel.clear();
+                whisperUtil.getMelSpectrogram(samples, samples.length, mel, 1);
+                mel.rewind();
+                mel.get(values);
+                checkMel(name, values, failures);
+            }
+        } finally {
+            whisperUtil.release();
+        }
+        assertTrue(TextUtils.join("\n", failures), failures.isEmpty());
+    }
+
+    @Test
+    public void pipelineMatchesGoldenAndReportsLatency() throws Exception {
+        File model = findModel();
+        assumeTrue("No " + MODEL_NAME + " in assets or files dir; skipping the full pipeline", model != null);
+
+        WhisperTensorflowLite engine = new WhisperTensorflowLite(appContext);
+        assertTrue(engine.initialize(model.getPath(), copyAsset(VOCAB_ASSET).getPath(), false));
+
+        JSONObject report = new JSONObject();
+        report.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+        report.put("sdk", Build.VERSION.SDK_INT);
+        report.put("model", model.getName());
+        report.put("runs", RUNS);
+        report.put("loadMs", engine.getLoadNanos() / 1e6);
+        engine.warmUp();
+        report.put("warmUpMs", engine.getWarmUpNanos() / 1e6);
+        JSONObject results = new JSONObject();
+        JSONObject recorded = new JSONObject();
+
+        float[] values = new float[N_MEL * MEL_LEN];
+        List<String> failures = new ArrayList<>();
+        try {
+            for (String name : wavAssets()) {
+                float[] samples = readWav(name);
+
+                // The first run on each file stays out of the timings
+                String transcript = engine.transcribeBuffer(samples);
+                long[][] stages = new long[3][RUNS];
+                for (int run = 0; run < RUNS; run++) {
+                    String again = engine.transcribeBuffer(samples);
+                    if (!again.equals(transcript)) {
+                        failures.add(name + ": non-deterministic transcript \"" + again + "\"");
+                    }
+                    stages[0][run] = engine.getMelNanos();
+                    stages[1][run] = engine.getInvokeNanos();
+                    stages[2][run] = engine.getDecodeNanos();
+                }
+                engine.copyMelInput(values);
+
+                // The file path streams the same samples through the mapped WAV reader
+                String fromFile = engine.transcribeFile(copyAsset(name).getPath());
+                if (!fromFile.equals(transcript)) {
+                    failures.add(name + ": transcribeFile gave \"" + fromFile + "\"");
+                }
+
+                JSONObject result = new JSONObject();
+                result.put("samples", samples.length);
+                result.put("audioSeconds", samples.length / (double) WhisperUtil.WHISPER_SAMPLE_RATE);
+                result.put("transcript", transcript);
+                String expected = expectedTranscript(name);
+                if (expected != null) {
+                    boolean match = normalize(expected).equals(normalize(transcript));
+                    result.put("expected", expected);
+                    result.put("transcriptMatch", match);
+                    if (!match) {
+                        failures.add(name + ": expected \"" + expected + "\" but got \"" + transcript + "\"");
+                    }
+                }
+                result.put("melMatch", checkMel(name, values, failures));
+                result.put("melMs", stageStats(stages[0]));
+                result.put("invokeMs", stageStats(stages[1]));
+                result.put("decodeMs", stageStats(stages[2]));
+                results.put(name, result);
+
+                if (record) {
+                    JSONObject entry = new JSONObject();
+                    entry.put("transcript", transcript);
+                    entry.put("samples", samples.length);
+                    entry.put("melDigest", toJson(melDigest(values)));
+                    recorded.put(name, entry);
+                }
+                Log.d(TAG, name + ": " + result);
+            }
+        } finally {
+            engine.deinitialize();
+        }
+
+        report.put("files", results);
+        File reportFile = writeOutput(REPORT_FILE, report);
+        Log.d(TAG, "Report written to " + reportFile);
+        if (record) {
+            JSONObject out = new JSONObject();
+            out.put("version", golden.getInt("version"));
+            out.put("blockFrames", golden.getInt("blockFrames"));
+            out.put("melTolerance", golden.getDouble("melTolerance"));
+            out.put("files", recorded);
+            Log.d(TAG, "Recorded goldens written to " + writeOutput(RECORDED_FILE, out));
+        }
+        assertTrue(TextUtils.join("\n", failures), failures.isEmpty());
+    }
+
+    private String[] wavAssets() throws IOException {
+        List<String> names = new ArrayList<>();
+        for (String name : appContext.getAssets().list("")) {
+            if (name.endsWith(".wav")) {
+                names.add(name);
+            }
+        }
+        String[] sorted = names.toArray(new String[0]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private String expectedTranscript(String name) throws JSONException {
+        JSONObject entry = golden.getJSONObject("files").optJSONObject(name);
+        return entry != null && entry.has("transcript") ? entry.getString("transcript") : null;
+    }
+
+    // Compares the digest of a normalised mel tensor with the golden one; returns whether it matched
+    private boolean checkMel(String name, float[] mel, List<String> failures) throws JSONException {
+        JSONObject entry = golden.getJSONObject("files").optJSONObject(name);
+        if (entry == null) {
+            failures.add(name + ": no golden entry, add it to " + GOLDEN_ASSET);
+            return false;
+        }
+        JSONArray expected = entry.getJSONArray("melDigest");
+        float[] digest = melDigest(mel);
+        if (expected.length() != digest.length) {
+            failures.add(name + ": golden mel digest has " + expected.length() + " values, expected " + digest.length);
+            return false;
+        }
+        double tolerance = golden.getDouble("melTolerance");
+        double maxDiff = 0.0;
+        int worst = 0;
+        for (int i = 0; i < digest.length; i++) {
+            double diff = Math.abs(digest[i] - expected.getDouble(i));
+            if (diff > maxDiff) {
+                maxDiff = diff;
+                worst = i;
+            }
+        }
+        if (maxDiff > tolerance) {
+            int blocks = digest.length / N_MEL;
+            failures.add(String.format(Locale.ROOT, "%s: mel differs by %.6f at band %d, block %d",
+                    name, maxDiff, worst / blocks, worst % blocks));
+            return false;
+        }
+        return true;
+    }
+
+    // Mean of every blockFrames-frame block of every mel band, band-major
+    private float[] melDigest(float[] mel) throws JSONException {
+        int blockFrames = golden.getInt("blockFrames");
+        int blocks = MEL_LEN / blockFrames;
+        float[] digest = new float[N_MEL * blocks];
+        for (int j = 0; j < N_MEL; j++) {
+            for (int b = 0; b < blocks; b++) {
+                double sum = 0.0;
+                int start = j * MEL_LEN + b * blockFrames;
+                for (int i = 0; i < blockFrames; i++) {
+                    sum += mel[start + i];
+                }
+                digest[j * blocks + b] = (float) (sum / blockFrames);
+            }
+        }
+        return digest;
+    }
+
+    private static JSONArray toJson(float[] values) throws JSONException {
+        JSONArray array = new JSONArray();
+        for (float value : values) {
+            array.put(Math.round(value * 1e6) / 1e6);
+        }
+        return array;
+    }
+
+    // min / median / p90 / max in milliseconds
+    private static JSONObject stageStats(long[] nanos) throws JSONException {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        JSONObject stats = new JSONObject();
+        stats.put("min", sorted[0] / 1e6);
+        stats.put("median", sorted[sorted.length / 2] / 1e6);
+        stats.put("p90", sorted[(int) Math.ceil(0.9 * sorted.length) - 1] / 1e6);
+        stats.put("max", sorted[sorted.length - 1] / 1e6);
+        return stats;
+    }
+
+    // Case, punctuation and spacing differences are not regressions
+    private static String normalize(String text) {
+        return text.toLowerCase(Locale.ROOT)
+                .replaceAll("[^\\p{L}\\p{N}\\s]", "")
+                .replaceAll("\\s+", " ")
+                .trim();
+    }
+
+    // Same places ASRManager looks: bundled asset first, then the downloaded copy
+    private File findModel() throws IOException {
+        if (Arrays.asList(appContext.getAssets().list("")).contains(MODEL_NAME)) {
+            return copyAsset(MODEL_NAME);
+        }
+        File[] candidates = {
+                new File(appContext.getFilesDir(), "assets/" + MODEL_NAME),
+                new File(appContext.getFilesDir(), MODEL_NAME)
+        };
+        for (File candidate : candidates) {
+            if (candidate.isFile()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private File copyAsset(String name) throws IOException {
+        File file = new File(appContext.getCacheDir(), name);
+        try (InputStream in = appContext.getAssets().open(name);
+             OutputStream out = new FileOutputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return file;
+    }
+
+    private File writeOutput(String name, JSONObject json) throws IOException, JSONException {
+        File dir = appContext.getExternalFilesDir(null);
+        File file = new File(dir != null ? dir : appContext.getFilesDir(), name);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(json.toString(2).getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    // WAV asset as mono samples in [-1, 1], read through the app's own WavReader
+    private float[] readWav(String name) throws IOException {
+        WavReader reader = WavReader.open(copyAsset(name).getPath());
+        if (reader.getSampleRate() != WhisperUtil.WHISPER_SAMPLE_RATE) {
+            throw new IOException(name + ": expected 16 kHz, got " + reader.getSampleRate() + " Hz");
+        }
+        float[] samples = new float[reader.getFrameCount()];
+        reader.read(samples, 0, samples.length);
+        return samples;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -16,11 +16,8 @@ import android.graphics.Paint
 import android.graphics.PixelFormat
 import android.hardware.display.DisplayManager
 import android.hardware.display.VirtualDisplay
-import android.media.AudioFormat
-import android.media.AudioRecord
 import android.media.Image
 import android.media.ImageReader
-import android.media.MediaRecorder
 import android.media.projection.MediaProjection
 import android.media.projection.MediaProjectionManager
 import android.net.Uri
@@ -50,14 +47,14 @@ import java.nio.ByteBuffer
 import java.text.SimpleDateFormat
 import java.util.Date
 import java.util.Locale
-import kotlin.math.abs
-import kotlin.math.max
 import kotlin.math.min
 import android.content.ContentValues
 import android.Manifest
 import android.content.pm.PackageManager
 import com.example.phonematetry.inference.ScreenshotInferenceManager
 import com.example.phonematetry.asr.ASRManager
+import com.example.phonematetry.asr.AudioCaptureHub
+import com.example.phonematetry.asr.LevelMeter
 import android.content.SharedPreferences
 import android.util.TypedValue
 
@@ -72,11 +69,12 @@ class VoiceAssistantService : Service() {
 
     private lateinit var btnClose: Button
 
-    private var audioRecord: AudioRecord? = null
-    private var isRecording = false
-    private val bufferSize = AudioRecord.getMinBufferSize(44100, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT)
-    private val audioBuffer = ShortArray(bufferSize / 2)
     private val handler = Handler(Looper.getMainLooper())
+    // 波形显示和语音识别共用同一个麦克风会话，以设备原生采样率采集
+    private val captureHub by lazy { AudioCaptureHub(AudioCaptureHub.getNativeSampleRate(this)) }
+    private val levelMeter = LevelMeter { level ->
+        handler.post { waveformView.updateAmplitude(level) }
+    }
 
     private var mediaProjection: MediaProjection? = null
     private var virtualDisplay: VirtualDisplay? = null
@@ -323,41 +321,11 @@ class VoiceAssistantService : Service() {
     }
 
     private fun startAudioRecording() {
-        audioRecord = AudioRecord(
-            MediaRecorder.AudioSource.MIC,
-            44100,
-            AudioFormat.CHANNEL_IN_MONO,
-            AudioFormat.ENCODING_PCM_16BIT,
-            bufferSize
-        )
-
-        audioRecord?.startRecording()
-        isRecording = true
-
-        Thread {
-            while (isRecording) {
-                val read = audioRecord?.read(audioBuffer, 0, audioBuffer.size) ?: 0
-                if (read > 0) {
-                    val amplitude = calculateAmplitude(audioBuffer, read)
-                    handler.post { waveformView.updateAmplitude(amplitude) }
-                }
-            }
-        }.start()
+        captureHub.addConsumer(levelMeter)
     }
 
     private fun stopAudioRecording() {
-        isRecording = false
-        audioRecord?.stop()
-        audioRecord?.release()
-        audioRecord = null
-    }
-
-    private fun calculateAmplitude(buffer: ShortArray, read: Int): Float {
-        var maxAmp = 0
-        for (i in 0 until read) {
-            maxAmp = max(maxAmp, abs(buffer[i].toInt()))
-        }
-        return maxAmp / 32767f
+        captureHub.removeConsumer(levelMeter)
     }
 
     private fun startContinuousScreenRecording() {
@@ -704,17 +672,21 @@ class VoiceAssistantService : Service() {
             }
             
             override fun onSilenceDetected() {
-                // 不再使用静音检测自动停止录音
+                // 说话结束后ASRManager会自动停止录音并开始识别，结果通过onRecordingFinished/onASRResult返回
             }
             
             override fun onSoundDetected() {
                 // 不再显示声音检测提示
             }
-        })
+        }, captureHub)
         
         // 在后台线程初始化ASR
         Thread {
             val success = asrManager.initializeWithAssetFiles(false) // 使用英文模型
+            if (success) {
+                // 保持麦克风常开，提问时直接从预录音开始，无需等待设备启动
+                asrManager.armCapture()
+            }
             handler.post {
                 if (success) {
                     isASRInitialized = true
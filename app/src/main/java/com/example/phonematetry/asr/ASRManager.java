@@ -1,22 +1,62 @@
 package com.example.phonematetry.asr;
 
 import android.content.Context;
+import android.os.Process;
 import android.util.Log;
 
 import com.example.phonematetry.engine.WhisperEngine;
+import com.example.phonematetry.utils.StreamingMelSpectrogram;
+import com.example.phonematetry.utils.WavReader;
+import com.example.phonematetry.utils.WhisperUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ASRManager implements AudioRecorder.AudioRecordingListener {
     private static final String TAG = "ASRManager";
     
+    // Bundled clip the interpreter setups are timed on
+    private static final String CALIBRATION_CLIP = "jfk.wav";
+    
+    // The mel feed reads the live audio in blocks of up to 100 ms and polls every 10 ms
+    private static final int MEL_FEED_BLOCK = 1600;
+    private static final long MEL_FEED_POLL_MS = 10;
+    
+    private static final int RECORDING_MEMORY_LIMIT_MS = 30000;
+    
     private Context context;
     private WhisperEngine whisperEngine;
     private AudioRecorder audioRecorder;
     private ASRListener listener;
     private boolean isInitialized = false;
     
+    // Feeds the recording's streaming mel builder from the recorder's ring buffer, so the
+    // spectrogram work stays off the recording thread. One per recording: onRecordingFinished()
+    // takes it over and hands it to the worker that transcribes that recording.
+    private volatile MelFeed melFeed;
+    
+    // Stop the recording and transcribe as soon as the recorder's endpointer hears the end of
+    // the utterance
+    private volatile boolean autoStop = true;
+    
+    // Recognition work, which the background calibration waits for and does not time runs over
+    private final AtomicLong recognitionsStarted = new AtomicLong();
+    private final AtomicInteger transcriptionsRunning = new AtomicInteger();
+    private final WhisperCalibrator.Activity recognitionActivity = new WhisperCalibrator.Activity() {
+        @Override
+        public boolean isBusy() {
+            return audioRecorder.isRecording() || transcriptionsRunning.get() > 0;
+        }
+        
+        @Override
+        public long getStarted() {
+            return recognitionsStarted.get();
+        }
+    };
+    private volatile Thread calibrationThread;
+    
     public interface ASRListener {
         void onASRResult(String transcription);
         void onASRError(String error);
@@ -27,16 +67,20 @@ public class ASRManager implements AudioRecorder.AudioRecordingListener {
     }
     
     public ASRManager(Context context, ASRListener listener) {
+        this(context, listener, new AudioCaptureHub(AudioCaptureHub.getNativeSampleRate(context)));
+    }
+    
+    // Records through captureHub, sharing the microphone with its other consumers
+    public ASRManager(Context context, ASRListener listener, AudioCaptureHub captureHub) {
         this.context = context;
         this.listener = listener;
-        this.audioRecorder = new AudioRecorder(this);
+        this.audioRecorder = new AudioRecorder(this, captureHub);
+        // Long recordings go to disk past the first 30 s instead of growing the heap
+        this.audioRecorder.setSpill(context.getCacheDir(), RECORDING_MEMORY_LIMIT_MS);
     }
     
     public boolean initialize(boolean useMultilingual) {
         try {
-            // Initialize Whisper engine
-            whisperEngine = new WhisperTensorflowLite(context);
-            
             // Get model and vocab paths
             String assetsDir = context.getFilesDir().getAbsolutePath() + "/assets";
             
@@ -52,7 +96,7 @@ public class ASRManager implements AudioRecorder.AudioRecordingListener {
             }
             
             // Check if files exist
-            if (!new File(modelPath).exists()) {
+            if (!new File(modelPath).exists() && !hasSplitModel(modelPath)) {
                 Log.e(TAG, "Model file not found: " + modelPath);
                 return false;
             }
@@ -63,7 +107,7 @@ public class ASRManager implements AudioRecorder.AudioRecordingListener {
             }
             
             // Initialize the engine
-            if (!whisperEngine.initialize(modelPath, vocabPath, useMultilingual)) {
+            if (!initializeEngine(modelPath, vocabPath, useMultilingual)) {
                 Log.e(TAG, "Failed to initialize Whisper engine");
                 return false;
             }
@@ -80,9 +124,6 @@ public class ASRManager implements AudioRecorder.AudioRecordingListener {
     
     public boolean initializeWithAssetFiles(boolean useMultilingual) {
         try {
-            // Initialize Whisper engine
-            whisperEngine = new WhisperTensorflowLite(context);
-            
             // Get model and vocab paths from assets
             String modelPath;
             String vocabPath;
@@ -101,7 +142,7 @@ public class ASRManager implements AudioRecorder.AudioRecordingListener {
             }
             
             // Initialize the engine
-            if (!whisperEngine.initialize(modelPath, vocabPath, useMultilingual)) {
+            if (!initializeEngine(modelPath, vocabPath, useMultilingual)) {
                 Log.e(TAG, "Failed to initialize Whisper engine");
                 return false;
             }
@@ -116,6 +157,84 @@ public class ASRManager implements AudioRecorder.AudioRecordingListener {
         }
     }
     
+    // Creates the engine with the calibrated interpreter setup if there is one; otherwise uses
+    // the defaults and runs the one-time calibration in the background for the next start, once
+    // the warm-up is done. Either way the engine warms up in the background while the user
+    // starts speaking.
+    private boolean initializeEngine(String modelPath, String vocabPath, boolean useMultilingual) throws IOException {
+        WhisperTensorflowLite engine = new WhisperTensorflowLite(context);
+        whisperEngine = engine;
+        
+        // An encoder/decoder pair next to the model takes precedence; it stops decoding at EOT
+        if (hasSplitModel(modelPath)) {
+            Log.d(TAG, "Using split encoder/decoder model");
+            if (!engine.initializeSplit(splitModelPath(modelPath, "encoder"), splitModelPath(modelPath, "decoder"),
+                    vocabPath, useMultilingual)) {
+                return false;
+            }
+            engine.startWarmUp();
+            return true;
+        }
+        
+        WhisperCalibrator calibrator = new WhisperCalibrator(context);
+        WhisperCalibrator.Config tuned = calibrator.loadTuned(modelPath);
+        String enginePath = modelPath;
+        if (tuned != null) {
+            Log.d(TAG, "Using calibrated interpreter setup: " + tuned);
+            engine.setInterpreterOptions(tuned.threads, tuned.useXnnpack);
+            enginePath = tuned.modelPath;
+        }
+        
+        if (!engine.initialize(enginePath, vocabPath, useMultilingual)) {
+            return false;
+        }
+        if (tuned == null && !calibrator.isCalibrated(modelPath)) {
+            engine.startWarmUp(() -> startCalibration(calibrator, modelPath, vocabPath, useMultilingual));
+        } else {
+            engine.startWarmUp();
+        }
+        return true;
+    }
+    
+    // whisper-tiny.en.tflite -> whisper-tiny.en.encoder.tflite / whisper-tiny.en.decoder.tflite
+    private static String splitModelPath(String modelPath, String part) {
+        String base = modelPath.endsWith(".tflite") ? modelPath.substring(0, modelPath.length() - ".tflite".length()) : modelPath;
+        return base + "." + part + ".tflite";
+    }
+    
+    private static boolean hasSplitModel(String modelPath) {
+        return new File(splitModelPath(modelPath, "encoder")).isFile()
+                && new File(splitModelPath(modelPath, "decoder")).isFile();
+    }
+    
+    private void startCalibration(WhisperCalibrator calibrator, String modelPath, String vocabPath,
+                                  boolean useMultilingual) {
+        // Destroyed during the warm-up
+        if (whisperEngine == null) {
+            return;
+        }
+        String clipPath = copyAssetToFile(CALIBRATION_CLIP);
+        if (clipPath == null) {
+            return;
+        }
+        
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            try {
+                WavReader reader = WavReader.open(clipPath);
+                float[] clip = new float[reader.getFrameCount()];
+                reader.read(clip, 0, clip.length);
+                calibrator.calibrate(modelPath, vocabPath, useMultilingual, clip, recognitionActivity);
+            } catch (IOException e) {
+                Log.e(TAG, "Interpreter calibration failed", e);
+            } catch (InterruptedException e) {
+                Log.d(TAG, "Interpreter calibration stopped");
+            }
+        }, "whisper-calibration");
+        calibrationThread = thread;
+        thread.start();
+    }
+    
     private String copyAssetToFile(String assetName) {
         try {
             File outputFile = new File(context.getFilesDir(), assetName);
@@ -159,7 +278,36 @@ public class ASRManager implements AudioRecorder.AudioRecordingListener {
         }
         
         Log.d(TAG, "Starting voice recognition");
-        audioRecorder.startRecording();
+        recognitionsStarted.incrementAndGet();
+        // Build the mel spectrogram while the user is still speaking, in a stream of this
+        // recording's own
+        StreamingMelSpectrogram stream = whisperEngine.beginStreaming();
+        if (audioRecorder.startRecording()) {
+            if (stream != null) {
+                startMelFeed(stream);
+            }
+        } else if (stream != null) {
+            whisperEngine.endStreaming(stream);
+        }
+    }
+    
+    // Keeps the microphone open while the assistant is active, so a query starts without device
+    // setup and with the last moments before it; see AudioRecorder
+    public boolean armCapture() {
+        return audioRecorder.arm();
+    }
+    
+    public void disarmCapture() {
+        audioRecorder.disarm();
+    }
+    
+    public void setAutoStop(boolean autoStop) {
+        this.autoStop = autoStop;
+    }
+    
+    // Trailing silence after which an utterance is finished
+    public void setEndOfSpeechTimeout(long timeoutMs) {
+        audioRecorder.setTrailingSilenceMs(timeoutMs);
     }
     
     public void stopVoiceRecognition() {
@@ -173,6 +321,12 @@ public class ASRManager implements AudioRecorder.AudioRecordingListener {
         if (audioRecorder.isRecording()) {
             audioRecorder.stopRecording();
         }
+        audioRecorder.release();
+        
+        Thread calibration = calibrationThread;
+        if (calibration != null) {
+            calibration.interrupt();
+        }
         
         if (whisperEngine != null) {
             whisperEngine.deinitialize();
@@ -191,6 +345,17 @@ public class ASRManager implements AudioRecorder.AudioRecordingListener {
         return audioRecorder.isRecording();
     }
     
+    // Live microphone audio for other consumers (e.g. visualisation), from the next sample on
+    public PcmRingBuffer.Reader openAudioReader() {
+        return audioRecorder.openReader();
+    }
+    
+    private void startMelFeed(StreamingMelSpectrogram stream) {
+        MelFeed feed = new MelFeed(stream, audioRecorder.openRecordingReader());
+        feed.start();
+        melFeed = feed;
+    }
+    
     // AudioRecorder.AudioRecordingListener implementation
     @Override
     public void onRecordingStarted() {
@@ -201,17 +366,39 @@ public class ASRManager implements AudioRecorder.AudioRecordingListener {
     }
     
     @Override
-    public void onRecordingFinished(float[] audioSamples) {
-        Log.d(TAG, "Recording finished, processing " + audioSamples.length + " samples");
+    public void onRecordingFinished(RecordedAudio recording) {
+        Log.d(TAG, "Recording finished, processing " + recording.getFrameCount() + " samples");
         
         if (listener != null) {
             listener.onRecordingFinished();
         }
         
+        MelFeed feed = melFeed;
+        melFeed = null;
+        long end = audioRecorder.getRecordingEnd();
+        WhisperEngine engine = whisperEngine;
+        recognitionsStarted.incrementAndGet();
+        transcriptionsRunning.incrementAndGet();
+        
         // Process audio in background thread
         new Thread(() -> {
             try {
-                String transcription = whisperEngine.transcribeBuffer(audioSamples);
+                // The streamed spectrogram only holds the first 30 s; longer recordings, or ones
+                // the mel feed could not keep up with, are transcribed from the recording itself,
+                // which is read in chunks however long it is.
+                // Others are checked for speech first, so a silent recording or an accidental tap
+                // never runs the model.
+                boolean streamed = feed != null && feed.finish(end);
+                String transcription;
+                if (recording.getFrameCount() > WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE
+                        || !streamed) {
+                    transcription = engine.transcribeSource(recording);
+                } else if (!engine.streamHasSpeech(feed.stream)) {
+                    Log.d(TAG, "No speech in recording, skipping transcription");
+                    transcription = "";
+                } else {
+                    transcription = engine.finishStreaming(feed.stream);
+                }
                 
                 // Post result back to main thread
                 if (listener != null) {
@@ -224,6 +411,12 @@ public class ASRManager implements AudioRecorder.AudioRecordingListener {
                 if (listener != null) {
                     listener.onASRError("Transcription error: " + e.getMessage());
                 }
+            } finally {
+                recording.release();
+                if (feed != null) {
+                    engine.endStreaming(feed.stream);
+                }
+                transcriptionsRunning.decrementAndGet();
             }
         }).start();
     }
@@ -231,6 +424,12 @@ public class ASRManager implements AudioRecorder.AudioRecordingListener {
     @Override
     public void onRecordingError(String error) {
         Log.e(TAG, "Recording error: " + error);
+        // A recording that stopped without being handed over is not transcribed
+        MelFeed feed = melFeed;
+        if (feed != null && !audioRecorder.isRecording()) {
+            melFeed = null;
+            feed.cancel();
+        }
         if (listener != null) {
             listener.onASRError(error);
         }
@@ -242,6 +441,10 @@ public class ASRManager implements AudioRecorder.AudioRecordingListener {
         if (listener != null) {
             listener.onSilenceDetected();
         }
+        if (autoStop) {
+            // Called on the capture thread, which stopRecording() waits for
+            new Thread(this::stopVoiceRecognition, "asr-auto-stop").start();
+        }
     }
     
     @Override
@@ -251,4 +454,75 @@ public class ASRManager implements AudioRecorder.AudioRecordingListener {
             listener.onSoundDetected();
         }
     }
+    
+    // Passes one recording's audio from the ring on to its streaming mel builder
+    private static class MelFeed {
+        final StreamingMelSpectrogram stream;
+        private final PcmRingBuffer.Reader reader;
+        private final Thread thread;
+        // Ring sequence number the recording ends at; open until the recording has stopped
+        private volatile long end = Long.MAX_VALUE;
+        
+        MelFeed(StreamingMelSpectrogram stream, PcmRingBuffer.Reader reader) {
+            this.stream = stream;
+            this.reader = reader;
+            this.thread = new Thread(this::run, "mel-feed");
+        }
+        
+        void start() {
+            thread.start();
+        }
+        
+        private void run() {
+            short[] block = new short[MEL_FEED_BLOCK];
+            while (true) {
+                // Audio past the end belongs to the armed recorder's idle stream, not the recording
+                long last = end;
+                long remaining = last - reader.getPosition();
+                if (remaining <= 0) {
+                    break;
+                }
+                int count = reader.read(block, 0, (int) Math.min(block.length, remaining));
+                if (count > 0) {
+                    // After an overrun the read may start closer to the end than planned
+                    long first = reader.getPosition() - count;
+                    int valid = (int) Math.min(count, last - first);
+                    if (valid > 0) {
+                        stream.append(block, 0, valid);
+                    }
+                } else {
+                    try {
+                        Thread.sleep(MEL_FEED_POLL_MS);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+        }
+        
+        // Stops the feed without waiting for it to catch up
+        void cancel() {
+            end = Long.MIN_VALUE;
+        }
+        
+        // Waits until the feed has passed on the recording up to end; returns false if it fell
+        // behind and lost samples, in which case the streamed spectrogram is incomplete
+        boolean finish(long end) {
+            this.end = end;
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                thread.interrupt();
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            
+            if (reader.getOverruns() > 0) {
+                Log.w(TAG, "Mel feed lost " + reader.getLostSamples() + " samples in "
+                        + reader.getOverruns() + " overruns");
+                return false;
+            }
+            return true;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,283 @@
+package com.example.phonematetry.asr;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// The one microphone session of the app.
+//
+// Owns a single AudioRecord and its capture thread and hands every block it reads to all
+// registered consumers, so the waveform view and speech recognition share one device instead
+// of opening two. The device runs while at least one consumer is registered. Each consumer
+// adapts the blocks to what it needs itself (see LevelMeter and AudioRecorder).
+//
+// Capture runs at the device's native rate where possible (usually 48 kHz): asking for 16 kHz
+// directly leaves the conversion to the audio HAL, whose resamplers vary a lot in quality
+// between devices. If the native rate cannot be opened, the hub falls back to 16 kHz.
+//
+// Consumers are called on the capture thread and must be quick: every consumer delays the
+// next read for all of them. Anything slow belongs behind a buffer such as PcmRingBuffer.
+public class AudioCaptureHub {
+    private static final String TAG = "AudioCaptureHub";
+    
+    // Rate assumed when the device does not report its native one
+    public static final int DEFAULT_SAMPLE_RATE = 48000;
+    private static final int FALLBACK_SAMPLE_RATE = 16000;
+    private static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO;
+    private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
+    // Device buffer of at least this many milliseconds
+    private static final int BUFFER_MS = 1000;
+    
+    public interface Consumer {
+        // 16-bit mono PCM at sampleRate, which can change between sessions; pcm is reused for
+        // the next block
+        void onAudio(short[] pcm, int length, int sampleRate);
+        // The device failed; the consumer has been removed
+        void onCaptureError(String error);
+    }
+    
+    // A running capture device; the microphone, or a fake one in tests
+    interface Device {
+        // Samples to read at a time
+        int getReadSize();
+        // Blocks until audio is available; negative on a device error
+        int read(short[] buffer, int offset, int length);
+        // Stops and releases the device
+        void release();
+    }
+    
+    interface DeviceFactory {
+        // Opens and starts a device at sampleRate; null if that is not possible
+        Device open(int sampleRate);
+    }
+    
+    private final CopyOnWriteArrayList<Consumer> consumers = new CopyOnWriteArrayList<>();
+    private final int requestedSampleRate;
+    private final DeviceFactory deviceFactory;
+    private Device device;
+    private Thread captureThread;
+    private volatile boolean capturing = false;
+    private volatile int sampleRate;
+    
+    public AudioCaptureHub() {
+        this(DEFAULT_SAMPLE_RATE);
+    }
+    
+    public AudioCaptureHub(int sampleRate) {
+        this(sampleRate, MicrophoneDevice::open);
+    }
+    
+    AudioCaptureHub(int sampleRate, DeviceFactory deviceFactory) {
+        this.requestedSampleRate = sampleRate;
+        this.sampleRate = sampleRate;
+        this.deviceFactory = deviceFactory;
+    }
+    
+    // The rate the audio output runs at, which on Android is the rate the input path runs at
+    // as well; DEFAULT_SAMPLE_RATE if the device does not say
+    public static int getNativeSampleRate(Context context) {
+        try {
+            AudioManager audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+            String rate = audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE);
+            if (rate != null) {
+                return Integer.parseInt(rate);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Could not query the native sample rate", e);
+        }
+        return DEFAULT_SAMPLE_RATE;
+    }
+    
+    // The rate of the current session, or of the next one if the device is not running
+    public int getSampleRate() {
+        return sampleRate;
+    }
+    
+    // Starts delivering blocks to consumer, starting the device if it is the first one; returns
+    // false if the device could not be started
+    public synchronized boolean addConsumer(Consumer consumer) {
+        if (consumers.contains(consumer)) {
+            return true;
+        }
+        // Registered before the device starts, so the first consumer gets the first block too
+        consumers.add(consumer);
+        if (!capturing && !startCapture()) {
+            consumers.remove(consumer);
+            return false;
+        }
+        Log.d(TAG, "Consumer added, " + consumers.size() + " active");
+        return true;
+    }
+    
+    // Stops delivering to consumer, which may still get the block in flight; the device stops
+    // with the last consumer
+    public synchronized void removeConsumer(Consumer consumer) {
+        if (!consumers.remove(consumer)) {
+            return;
+        }
+        Log.d(TAG, "Consumer removed, " + consumers.size() + " active");
+        if (consumers.isEmpty()) {
+            stopCapture();
+        }
+    }
+    
+    public boolean isCapturing() {
+        return capturing;
+    }
+    
+    private boolean startCapture() {
+        if (!openDevice(requestedSampleRate)
+                && (requestedSampleRate == FALLBACK_SAMPLE_RATE || !openDevice(FALLBACK_SAMPLE_RATE))) {
+            return false;
+        }
+        
+        capturing = true;
+        captureThread = new Thread(this::captureLoop, "audio-capture");
+        captureThread.start();
+        Log.d(TAG, "Capture started at " + sampleRate + " Hz");
+        return true;
+    }
+    
+    private boolean openDevice(int rate) {
+        device = deviceFactory.open(rate);
+        if (device == null) {
+            return false;
+        }
+        sampleRate = rate;
+        return true;
+    }
+    
+    private void stopCapture() {
+        capturing = false;
+        
+        if (captureThread != null) {
+            try {
+                captureThread.join(1000); // Wait up to 1 second
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted while waiting for capture thread to finish");
+            }
+            captureThread = null;
+        }
+        
+        if (device != null) {
+            device.release();
+            device = null;
+            Log.d(TAG, "Capture stopped");
+        }
+    }
+    
+    private void captureLoop() {
+        int rate = sampleRate;
+        Device source = device;
+        short[] buffer = new short[source.getReadSize()];
+        
+        while (capturing) {
+            int samplesRead = source.read(buffer, 0, buffer.length);
+            
+            if (samplesRead > 0) {
+                for (Consumer consumer : consumers) {
+                    consumer.onAudio(buffer, samplesRead, rate);
+                }
+            } else if (samplesRead < 0) {
+                Log.e(TAG, "Error reading audio data: " + samplesRead);
+                List<Consumer> failed = releaseFailedDevice(source);
+                for (Consumer consumer : failed) {
+                    consumer.onCaptureError("Error reading audio data: " + samplesRead);
+                }
+                return;
+            }
+        }
+    }
+    
+    // Called by the capture thread when source fails: stops and releases it and drops the
+    // consumers, which are returned for the error callbacks. Returns none if stopCapture() got
+    // there first. Consumers added after this get a new device.
+    private synchronized List<Consumer> releaseFailedDevice(Device source) {
+        List<Consumer> failed = new ArrayList<>();
+        if (device != source) {
+            return failed;
+        }
+        capturing = false;
+        failed.addAll(consumers);
+        consumers.clear();
+        captureThread = null;
+        device.release();
+        device = null;
+        Log.d(TAG, "Capture stopped after a device error");
+        return failed;
+    }
+    
+    private static class MicrophoneDevice implements Device {
+        private final AudioRecord audioRecord;
+        private final int readSize;
+        
+        private MicrophoneDevice(AudioRecord audioRecord, int readSize) {
+            this.audioRecord = audioRecord;
+            this.readSize = readSize;
+        }
+        
+        static Device open(int rate) {
+            AudioRecord audioRecord = null;
+            try {
+                int bufferSize = AudioRecord.getMinBufferSize(rate, CHANNEL_CONFIG, AUDIO_FORMAT);
+                if (bufferSize <= 0) {
+                    Log.w(TAG, rate + " Hz not supported");
+                    return null;
+                }
+                int readSize = bufferSize;
+                bufferSize = Math.max(bufferSize, rate * 2 * BUFFER_MS / 1000);
+                
+                audioRecord = new AudioRecord(
+                    MediaRecorder.AudioSource.MIC,
+                    rate,
+                    CHANNEL_CONFIG,
+                    AUDIO_FORMAT,
+                    bufferSize
+                );
+                
+                if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+                    Log.e(TAG, "AudioRecord initialization failed at " + rate + " Hz");
+                    audioRecord.release();
+                    return null;
+                }
+                
+                audioRecord.startRecording();
+                return new MicrophoneDevice(audioRecord, readSize);
+                
+            } catch (Exception e) {
+                Log.e(TAG, "Error starting AudioRecord at " + rate + " Hz", e);
+                if (audioRecord != null) {
+                    audioRecord.release();
+                }
+                return null;
+            }
+        }
+        
+        @Override
+        public int getReadSize() {
+            return readSize;
+        }
+        
+        @Override
+        public int read(short[] buffer, int offset, int length) {
+            return audioRecord.read(buffer, offset, length);
+        }
+        
+        @Override
+        public void release() {
+            try {
+                audioRecord.stop();
+                audioRecord.release();
+            } catch (Exception e) {
+                Log.e(TAG, "Error stopping AudioRecord", e);
+            }
+        }
+    }
+}
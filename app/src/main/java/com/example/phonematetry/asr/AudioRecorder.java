@@ -1,195 +1,417 @@
 package com.example.phonematetry.asr;
 
-import android.media.AudioFormat;
-import android.media.AudioRecord;
-import android.media.MediaRecorder;
 import android.util.Log;
 
-import java.util.ArrayList;
-import java.util.List;
+import com.example.phonematetry.utils.PolyphaseResampler;
 
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Microphone capture for voice queries.
+//
+// The microphone is shared through an AudioCaptureHub. This recorder is one of its consumers
+// and publishes everything it gets into a ring buffer; a recording is the span of that stream
+// between startRecording() and stopRecording(), which the capture thread copies out of the
+// ring as it goes. The hub delivers the device's native rate; the recorder resamples it to
+// SAMPLE_RATE on the way into the ring, so everything downstream sees 16 kHz. Normally the
+// recorder only consumes audio while recording. When armed, it keeps consuming between queries
+// instead, so a query starts without any device setup and includes the last PREROLL_MS of
+// audio from before the start.
+//
+// Given a spill directory, a recording keeps only its first memory limit's worth of audio on
+// the heap and the rest in a memory-mapped file, so talking for a long time does not grow the
+// heap. The recording is handed over as a RecordedAudio stream, whose storage comes back for
+// the next recording once it is released.
 public class AudioRecorder {
     private static final String TAG = "AudioRecorder";
     
     private static final int SAMPLE_RATE = 16000;
-    private static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO;
-    private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
     
-    private static final int SILENCE_THRESHOLD_DB = 50; // 50 dB threshold
-    private static final long SILENCE_DURATION_MS = 2000; // 2 seconds
-    private static final int BUFFER_SIZE_FACTOR = 2;
+    // Live audio for readers such as the streaming mel builder: about 8 seconds
+    private static final int RING_SAMPLES = 1 << 17;
+    // Audio from before startRecording() that an armed recorder puts in front of a recording
+    private static final int PREROLL_MS = 1500;
+    private static final int PREROLL_SAMPLES = SAMPLE_RATE * PREROLL_MS / 1000;
+    // Audio of a recording kept on the heap before spilling, one Whisper window
+    private static final int DEFAULT_MEMORY_LIMIT_MS = 30000;
     
-    private AudioRecord audioRecord;
-    private boolean isRecording = false;
-    private Thread recordingThread;
-    private List<Short> audioData;
+    private final AudioCaptureHub captureHub;
+    private final AudioCaptureHub.Consumer consumer = new AudioCaptureHub.Consumer() {
+        @Override
+        public void onAudio(short[] pcm, int length, int sampleRate) {
+            if (!delivered) {
+                delivered = true;
+            }
+            publish(pcm, length, sampleRate);
+            collectRecording();
+        }
+        
+        @Override
+        public void onCaptureError(String error) {
+            capturing = false;
+            synchronized (collectLock) {
+                // No more audio is coming; the recording ends with the last sample written
+                if (recordingStart >= 0) {
+                    recordingEnd = Math.min(recordingEnd, ring.getWriteSequence());
+                }
+                collectRecordingLocked();
+            }
+            if (isRecording && listener != null) {
+                listener.onRecordingError(error);
+            }
+            rearmAfterError(error);
+        }
+    };
+    // Whether the consumer is registered with the hub
+    private volatile boolean capturing = false;
+    // Whether the hub has delivered audio since the consumer was registered
+    private volatile boolean delivered = false;
+    private volatile boolean armed = false;
+    private volatile boolean isRecording = false;
+    private final PcmRingBuffer ring = new PcmRingBuffer(RING_SAMPLES);
     private AudioRecordingListener listener;
     
-    private long lastSoundTime = 0;
-    private boolean silenceDetected = false;
+    // Span of the current recording in ring sequence numbers, end exclusive; recordingStart is
+    // -1 when there is none. Set by start/stopRecording(), consumed by the capture thread, which
+    // clears recordingStart and counts down recordingDone once it has copied the whole span.
+    private volatile long recordingStart = -1;
+    private volatile long recordingEnd = Long.MAX_VALUE;
+    private volatile CountDownLatch recordingDone;
+    private volatile long trailingSilenceMs = Endpointer.DEFAULT_TRAILING_SILENCE_MS;
+    private volatile File spillDirectory;
+    private volatile int memoryLimitMs = DEFAULT_MEMORY_LIMIT_MS;
+    // Storage of the last released recording, reused by the next one
+    private final AtomicReference<PcmBuffer> spareBuffer = new AtomicReference<>();
+    
+    // Guarded by collectLock: the capture thread collects a recording into audioData, and
+    // stopRecording() takes it over, finished or not
+    private final Object collectLock = new Object();
+    private PcmBuffer audioData;
+    private PcmRingBuffer.Reader recordingReader;
+    private final short[] scratch = new short[4096];
+    // Converts native-rate capture to SAMPLE_RATE; null while the hub delivers SAMPLE_RATE
+    private PolyphaseResampler resampler;
+    // Set when the consumer is registered, so a new capture session does not start with the
+    // filter history of the last one
+    private volatile boolean resetResampler = false;
+    private short[] resampled = new short[0];
+    private final Endpointer endpointer = new Endpointer(SAMPLE_RATE);
     
     public interface AudioRecordingListener {
         void onRecordingStarted();
-        void onRecordingFinished(float[] audioSamples);
+        // The listener owns the recording and must release() it when done with it
+        void onRecordingFinished(RecordedAudio recording);
+        // Also called between recordings when an armed recorder loses the device and disarms
         void onRecordingError(String error);
+        // End of the utterance, or no speech at all within a few seconds; called on the capture
+        // thread, so stopRecording() must not be called from it directly
         void onSilenceDetected();
+        // Start of the utterance
         void onSoundDetected();
     }
     
     public AudioRecorder(AudioRecordingListener listener) {
+        this(listener, new AudioCaptureHub());
+    }
+    
+    public AudioRecorder(AudioRecordingListener listener, AudioCaptureHub captureHub) {
         this.listener = listener;
-        this.audioData = new ArrayList<>();
+        this.captureHub = captureHub;
+    }
+    
+    // Keeps the microphone running from now on, so recordings start instantly with a pre-roll
+    public synchronized boolean arm() {
+        if (armed) {
+            return true;
+        }
+        if (!capturing && !startCapture()) {
+            return false;
+        }
+        armed = true;
+        Log.d(TAG, "Capture armed");
+        return true;
+    }
+    
+    // Releases the microphone, or lets the current recording release it when it stops
+    public synchronized void disarm() {
+        if (!armed) {
+            return;
+        }
+        armed = false;
+        if (!isRecording) {
+            stopCapture();
+        }
+        Log.d(TAG, "Capture disarmed");
+    }
+    
+    public boolean isArmed() {
+        return armed;
     }
     
-    public boolean startRecording() {
+    // How long the speaker has to be quiet before the utterance counts as finished; applies from
+    // the next recording on
+    public void setTrailingSilenceMs(long trailingSilenceMs) {
+        this.trailingSilenceMs = trailingSilenceMs;
+    }
+    
+    // Lets recordings go past memoryLimitMs by spilling into a file in directory (null keeps
+    // everything in memory); set up before recording
+    public void setSpill(File directory, int memoryLimitMs) {
+        this.spillDirectory = directory;
+        this.memoryLimitMs = memoryLimitMs;
+        PcmBuffer spare = spareBuffer.getAndSet(null);
+        if (spare != null) {
+            spare.release();
+        }
+    }
+    
+    // Stops capturing for good and deletes any spill file
+    public synchronized void release() {
+        disarm();
+        PcmBuffer spare = spareBuffer.getAndSet(null);
+        if (spare != null) {
+            spare.release();
+        }
+    }
+    
+    public synchronized boolean startRecording() {
         if (isRecording) {
             Log.w(TAG, "Already recording");
             return false;
         }
         
-        try {
-            int bufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE, CHANNEL_CONFIG, AUDIO_FORMAT);
-            bufferSize = Math.max(bufferSize, SAMPLE_RATE * BUFFER_SIZE_FACTOR);
-            
-            audioRecord = new AudioRecord(
-                MediaRecorder.AudioSource.MIC,
-                SAMPLE_RATE,
-                CHANNEL_CONFIG,
-                AUDIO_FORMAT,
-                bufferSize
-            );
-            
-            if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
-                Log.e(TAG, "AudioRecord initialization failed");
-                if (listener != null) {
-                    listener.onRecordingError("AudioRecord initialization failed");
-                }
-                return false;
-            }
-            
-            audioData.clear();
-            isRecording = true;
-            silenceDetected = false;
-            lastSoundTime = System.currentTimeMillis();
-            
-            audioRecord.startRecording();
-            
-            recordingThread = new Thread(this::recordingLoop);
-            recordingThread.start();
-            
+        // Armed: the recorder is already consuming audio and the recording reaches back into the
+        // ring
+        long start = ring.getWriteSequence();
+        if (capturing) {
+            start = Math.max(0, start - PREROLL_SAMPLES);
+        } else if (!startCapture()) {
             if (listener != null) {
-                listener.onRecordingStarted();
-            }
-            
-            Log.d(TAG, "Recording started");
-            return true;
-            
-        } catch (Exception e) {
-            Log.e(TAG, "Error starting recording", e);
-            if (listener != null) {
-                listener.onRecordingError("Error starting recording: " + e.getMessage());
+                listener.onRecordingError("AudioRecord initialization failed");
             }
             return false;
         }
+        
+        recordingDone = new CountDownLatch(1);
+        recordingEnd = Long.MAX_VALUE;
+        recordingStart = start;
+        isRecording = true;
+        
+        if (listener != null) {
+            listener.onRecordingStarted();
+        }
+        
+        Log.d(TAG, "Recording started" + (armed ? " with " + PREROLL_MS + " ms pre-roll" : ""));
+        return true;
     }
     
-    public void stopRecording() {
+    public synchronized void stopRecording() {
         if (!isRecording) {
             Log.w(TAG, "Not currently recording");
             return;
         }
         
+        recordingEnd = ring.getWriteSequence();
         isRecording = false;
         
-        if (recordingThread != null) {
-            try {
-                recordingThread.join(1000); // Wait up to 1 second
-            } catch (InterruptedException e) {
-                Log.w(TAG, "Interrupted while waiting for recording thread to finish");
-            }
+        try {
+            // The capture thread hands over the recording with the next block it delivers
+            recordingDone.await(1000, TimeUnit.MILLISECONDS); // Wait up to 1 second
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted while waiting for recording thread to finish");
+        }
+        if (!armed) {
+            stopCapture();
         }
         
-        if (audioRecord != null) {
-            try {
-                audioRecord.stop();
-                audioRecord.release();
-            } catch (Exception e) {
-                Log.e(TAG, "Error stopping AudioRecord", e);
+        PcmBuffer data;
+        boolean complete;
+        synchronized (collectLock) {
+            complete = recordingDone.getCount() == 0;
+            data = audioData;
+            // Without the hand-over the capture thread drops the recording from its next block on
+            audioData = null;
+            recordingReader = null;
+            recordingStart = -1;
+        }
+        if (!complete || data == null) {
+            Log.w(TAG, "Timed out waiting for the end of the recording");
+            if (data != null) {
+                recycle(data);
             }
-            audioRecord = null;
+            if (listener != null) {
+                listener.onRecordingError("Recording did not finish");
+            }
+            return;
         }
         
-        // Convert recorded data to float array
-        float[] samples = convertToFloatArray();
+        RecordedAudio recording = new RecordedAudio(data, this, SAMPLE_RATE);
+        Log.d(TAG, "Recording stopped, samples: " + recording.getFrameCount()
+                + (recording.isSpilled() ? " (spilled to disk)" : ""));
         
         if (listener != null) {
-            listener.onRecordingFinished(samples);
+            listener.onRecordingFinished(recording);
+        } else {
+            recording.release();
+        }
+    }
+    
+    private boolean startCapture() {
+        resetResampler = true;
+        delivered = false;
+        // Set first: the hub may already report a device error before addConsumer() returns
+        capturing = true;
+        if (!captureHub.addConsumer(consumer)) {
+            capturing = false;
+            return false;
+        }
+        return true;
+    }
+    
+    private void stopCapture() {
+        capturing = false;
+        captureHub.removeConsumer(consumer);
+    }
+    
+    // The hub dropped the consumer after a device error. An armed recorder opens a new device,
+    // so later queries keep their pre-roll; if the failed one never delivered any audio, a new
+    // one is not likely to do better, so the recorder disarms and reports the error instead,
+    // unless the recording it broke has already reported it.
+    private synchronized void rearmAfterError(String error) {
+        if (!armed || capturing) {
+            return;
+        }
+        if (delivered && startCapture()) {
+            Log.w(TAG, "Capture re-armed after a device error");
+            return;
+        }
+        armed = false;
+        Log.w(TAG, "Capture disarmed after a device error");
+        if (!isRecording && listener != null) {
+            listener.onRecordingError(error);
+        }
+    }
+    
+    // Writes a block from the hub into the ring at SAMPLE_RATE
+    private void publish(short[] pcm, int length, int sampleRate) {
+        if (sampleRate == SAMPLE_RATE) {
+            resampler = null;
+            ring.write(pcm, 0, length);
+            return;
+        }
+        if (resampler == null || resampler.getInputRate() != sampleRate) {
+            resampler = new PolyphaseResampler(sampleRate, SAMPLE_RATE);
+            resetResampler = false;
+            Log.d(TAG, "Resampling " + sampleRate + " Hz to " + SAMPLE_RATE + " Hz, "
+                    + resampler.getTapsPerPhase() + " taps per phase");
+        } else if (resetResampler) {
+            resetResampler = false;
+            resampler.reset();
+        }
+        int needed = resampler.maxOutput(length);
+        if (resampled.length < needed) {
+            resampled = new short[needed];
+        }
+        int count = resampler.process(pcm, 0, length, resampled, 0);
+        ring.write(resampled, 0, count);
+    }
+    
+    // Copies the part of the current recording captured so far from the ring into audioData,
+    // with endpointing on the way; hands the recording over once it is complete
+    private void collectRecording() {
+        synchronized (collectLock) {
+            collectRecordingLocked();
         }
-        
-        Log.d(TAG, "Recording stopped, samples: " + samples.length);
     }
     
-    private void recordingLoop() {
-        int bufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE, CHANNEL_CONFIG, AUDIO_FORMAT);
-        short[] buffer = new short[bufferSize];
+    private void collectRecordingLocked() {
+        long start = recordingStart;
+        if (start < 0) {
+            return;
+        }
+        if (recordingReader == null) {
+            recordingReader = ring.newReader(start);
+            audioData = takeBuffer();
+            audioData.clear();
+            endpointer.reset();
+            endpointer.setTrailingSilenceMs(trailingSilenceMs);
+        }
         
-        while (isRecording) {
-            int bytesRead = audioRecord.read(buffer, 0, buffer.length);
-            
-            if (bytesRead > 0) {
-                // Add data to our collection
-                for (int i = 0; i < bytesRead; i++) {
-                    audioData.add(buffer[i]);
-                }
-                
-                // Calculate amplitude for silence detection
-                double amplitude = calculateAmplitude(buffer, bytesRead);
-                double amplitudeDb = 20 * Math.log10(amplitude / 32767.0); // Convert to dB
-                
-                long currentTime = System.currentTimeMillis();
-                
-                if (amplitudeDb > -SILENCE_THRESHOLD_DB) {
-                    // Sound detected
-                    lastSoundTime = currentTime;
-                    if (silenceDetected) {
-                        silenceDetected = false;
-                        if (listener != null) {
-                            listener.onSoundDetected();
-                        }
-                    }
-                } else {
-                    // Check for silence duration
-                    if (currentTime - lastSoundTime > SILENCE_DURATION_MS) {
-                        if (!silenceDetected) {
-                            silenceDetected = true;
-                            if (listener != null) {
-                                listener.onSilenceDetected();
-                            }
-                            // 不再自动停止录音，只通知静音检测
-                        }
-                    }
-                }
-            } else if (bytesRead < 0) {
-                Log.e(TAG, "Error reading audio data: " + bytesRead);
+        long end = recordingEnd;
+        while (true) {
+            long wanted = Math.min(end, ring.getWriteSequence()) - recordingReader.getPosition();
+            if (wanted <= 0) {
+                break;
+            }
+            int count = recordingReader.read(scratch, 0, (int) Math.min(scratch.length, wanted));
+            if (count <= 0) {
                 break;
             }
+            // Add data to our collection
+            audioData.append(scratch, 0, count);
+            detectEndpoint(scratch, count);
+        }
+        
+        if (recordingReader.getPosition() >= end) {
+            if (recordingReader.getLostSamples() > 0) {
+                Log.w(TAG, "Recording lost " + recordingReader.getLostSamples() + " samples");
+            }
+            recordingReader = null;
+            recordingStart = -1;
+            recordingDone.countDown();
+        }
+    }
+    
+    private void detectEndpoint(short[] buffer, int length) {
+        int event = endpointer.process(buffer, 0, length);
+        if (event == Endpointer.NONE || listener == null) {
+            return;
+        }
+        if (event == Endpointer.SPEECH_STARTED) {
+            listener.onSoundDetected();
+        } else {
+            Log.d(TAG, (event == Endpointer.END_OF_SPEECH ? "End of speech" : "No speech")
+                    + ", noise floor " + Math.round(endpointer.getNoiseFloorDb()) + " dB");
+            listener.onSilenceDetected();
         }
     }
     
-    private double calculateAmplitude(short[] buffer, int length) {
-        double sum = 0;
-        for (int i = 0; i < length; i++) {
-            sum += Math.abs(buffer[i]);
+    private PcmBuffer takeBuffer() {
+        PcmBuffer buffer = spareBuffer.getAndSet(null);
+        if (buffer == null) {
+            File directory = spillDirectory;
+            buffer = directory != null
+                    ? new PcmBuffer(SAMPLE_RATE / 1000 * memoryLimitMs, directory)
+                    : new PcmBuffer();
         }
-        return sum / length;
+        return buffer;
     }
     
-    private float[] convertToFloatArray() {
-        float[] samples = new float[audioData.size()];
-        for (int i = 0; i < audioData.size(); i++) {
-            samples[i] = audioData.get(i) / 32768.0f; // Normalize to [-1, 1]
+    // Called by RecordedAudio.release(); keeps one buffer for the next recording
+    void recycle(PcmBuffer buffer) {
+        if (!spareBuffer.compareAndSet(null, buffer)) {
+            buffer.release();
         }
-        return samples;
+    }
+    
+    // Reader of the live audio from the next sample captured on; readers consume at their own
+    // pace and never hold up the capture thread
+    public PcmRingBuffer.Reader openReader() {
+        return ring.newReader();
+    }
+    
+    // Reader of the current recording from its first sample, pre-roll included
+    public PcmRingBuffer.Reader openRecordingReader() {
+        long start = recordingStart;
+        return start >= 0 ? ring.newReader(start) : ring.newReader();
+    }
+    
+    // Sequence number just past the last sample of the last stopped recording, where a reader
+    // from openRecordingReader() has to stop; Long.MAX_VALUE while recording
+    public long getRecordingEnd() {
+        return recordingEnd;
     }
     
     public boolean isRecording() {
@@ -199,4 +421,4 @@ public class AudioRecorder {
     public int getSampleRate() {
         return SAMPLE_RATE;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,131 @@
+package com.example.phonematetry.asr;
+
+// Finds the end of an utterance in live audio, so a query can stop without a second tap.
+//
+// Audio is judged in 20 ms frames. The noise floor follows the frame energy down quickly and up
+// only slowly, and hardly at all during speech, so it settles on the background level (the
+// pre-roll of an armed recorder gives it a head start). A frame is speech when it is above an
+// absolute minimum and START_MARGIN_DB above the floor, or only CONTINUE_MARGIN_DB once an
+// utterance has started, so quiet syllables between louder ones do not count as silence.
+// Once MIN_SPEECH_MS of speech has been heard, the utterance ends after the trailing-silence
+// timeout; speech frames keep it alive for a HANGOVER_MS afterwards, so short pauses and weak
+// consonants do not start the timeout. If no utterance starts within NO_SPEECH_TIMEOUT_MS, that
+// ends the recording too.
+class Endpointer {
+    static final int NONE = 0;
+    static final int SPEECH_STARTED = 1;
+    static final int END_OF_SPEECH = 2;
+    static final int NO_SPEECH = 3;
+    
+    static final long DEFAULT_TRAILING_SILENCE_MS = 800;
+    
+    private static final int FRAME_MS = 20;
+    private static final float START_MARGIN_DB = 10.0f;
+    private static final float CONTINUE_MARGIN_DB = 6.0f;
+    // Frames below this level (mean square, relative to full scale) are never speech
+    private static final float MIN_SPEECH_DB = -55.0f;
+    private static final long MIN_SPEECH_MS = 300;
+    private static final long HANGOVER_MS = 200;
+    private static final long NO_SPEECH_TIMEOUT_MS = 8000;
+    // Per-frame smoothing of the noise floor when the frame is below it, above it, and above it
+    // but speech; the last only gets the floor out of a sudden lasting rise in background noise
+    private static final float FLOOR_FALL = 0.3f;
+    private static final float FLOOR_RISE = 0.01f;
+    private static final float FLOOR_RISE_SPEECH = 0.0005f;
+    
+    private final int frameSamples;
+    private long trailingSilenceMs = DEFAULT_TRAILING_SILENCE_MS;
+    
+    private double frameEnergy;
+    private int frameFill;
+    private float noiseFloorDb;
+    private boolean hasFloor;
+    private long elapsedMs;
+    private long speechMs;
+    private long lastSpeechMs;
+    private boolean speaking;
+    private boolean finished;
+    
+    Endpointer(int sampleRate) {
+        frameSamples = sampleRate * FRAME_MS / 1000;
+        reset();
+    }
+    
+    void setTrailingSilenceMs(long trailingSilenceMs) {
+        this.trailingSilenceMs = Math.max(FRAME_MS, trailingSilenceMs);
+    }
+    
+    long getTrailingSilenceMs() {
+        return trailingSilenceMs;
+    }
+    
+    void reset() {
+        frameEnergy = 0;
+        frameFill = 0;
+        noiseFloorDb = 0;
+        hasFloor = false;
+        elapsedMs = 0;
+        speechMs = 0;
+        lastSpeechMs = 0;
+        speaking = false;
+        finished = false;
+    }
+    
+    // Feeds pcm[offset, offset + length) and returns the most important event it caused:
+    // END_OF_SPEECH or NO_SPEECH (once per utterance, nothing is reported after them), then
+    // SPEECH_STARTED, otherwise NONE
+    int process(short[] pcm, int offset, int length) {
+        int event = NONE;
+        for (int i = 0; i < length && !finished; i++) {
+            float sample = pcm[offset + i] / 32768.0f;
+            frameEnergy += sample * sample;
+            if (++frameFill == frameSamples) {
+                int frameEvent = endFrame();
+                if (frameEvent > event) {
+                    event = frameEvent;
+                }
+            }
+        }
+        return event;
+    }
+    
+    float getNoiseFloorDb() {
+        return noiseFloorDb;
+    }
+    
+    private int endFrame() {
+        float db = (float) (10.0 * Math.log10(frameEnergy / frameSamples + 1e-10));
+        frameEnergy = 0;
+        frameFill = 0;
+        elapsedMs += FRAME_MS;
+        
+        if (!hasFloor) {
+            noiseFloorDb = db;
+            hasFloor = true;
+        }
+        float margin = speaking ? CONTINUE_MARGIN_DB : START_MARGIN_DB;
+        boolean speech = db > noiseFloorDb + margin && db > MIN_SPEECH_DB;
+        float rate = db < noiseFloorDb ? FLOOR_FALL : speech ? FLOOR_RISE_SPEECH : FLOOR_RISE;
+        noiseFloorDb += rate * (db - noiseFloorDb);
+        
+        if (speech) {
+            speechMs += FRAME_MS;
+            lastSpeechMs = elapsedMs;
+            if (!speaking && speechMs >= MIN_SPEECH_MS) {
+                speaking = true;
+                return SPEECH_STARTED;
+            }
+            return NONE;
+        }
+        
+        if (speaking && elapsedMs - lastSpeechMs >= HANGOVER_MS + trailingSilenceMs) {
+            finished = true;
+            return END_OF_SPEECH;
+        }
+        if (!speaking && elapsedMs >= NO_SPEECH_TIMEOUT_MS) {
+            finished = true;
+            return NO_SPEECH;
+        }
+        return NONE;
+    }
+}
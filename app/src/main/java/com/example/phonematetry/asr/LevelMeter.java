@@ -0,0 +1,46 @@
+package com.example.phonematetry.asr;
+
+// AudioCaptureHub consumer that turns the audio into a peak level for visualisation.
+//
+// Reports the peak of the last LEVEL_INTERVAL_MS as a fraction of full scale, i.e. about 20
+// levels a second whatever rate and block size the device uses. The listener is called on the
+// capture thread; UI code has to post the level to the main thread.
+public class LevelMeter implements AudioCaptureHub.Consumer {
+    private static final int LEVEL_INTERVAL_MS = 50;
+    
+    public interface LevelListener {
+        // Peak level in [0, 1]
+        void onLevel(float level);
+    }
+    
+    private final LevelListener listener;
+    private int peak = 0;
+    private int counted = 0;
+    
+    public LevelMeter(LevelListener listener) {
+        this.listener = listener;
+    }
+    
+    @Override
+    public void onAudio(short[] pcm, int length, int sampleRate) {
+        int intervalSamples = sampleRate * LEVEL_INTERVAL_MS / 1000;
+        for (int i = 0; i < length; i++) {
+            int value = Math.abs(pcm[i]);
+            if (value > peak) {
+                peak = value;
+            }
+            if (++counted >= intervalSamples) {
+                listener.onLevel(Math.min(1.0f, peak / 32767f));
+                peak = 0;
+                counted = 0;
+            }
+        }
+    }
+    
+    @Override
+    public void onCaptureError(String error) {
+        peak = 0;
+        counted = 0;
+        listener.onLevel(0f);
+    }
+}
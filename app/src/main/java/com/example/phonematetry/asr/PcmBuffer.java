@@ -0,0 +1,143 @@
+package com.example.phonematetry.asr;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+// Growable store for 16-bit PCM, kept as a list of fixed-size short[] blocks.
+//
+// Appends are bulk copies into the current block, and growing only adds a block, so nothing is
+// ever copied twice. clear() keeps the blocks for the next recording; once the longest
+// recording so far has been seen, recording allocates nothing at all.
+//
+// With a spill directory only the first memoryLimit samples stay on the heap; everything after
+// them goes to a PcmSpillFile, so heap use stays the same however long the recording gets.
+class PcmBuffer {
+    private static final String TAG = "PcmBuffer";
+    
+    // About one second at 16 kHz
+    private static final int BLOCK_SAMPLES = 16384;
+    private static final int SCRATCH_SAMPLES = 4096;
+    
+    private final ArrayList<short[]> blocks = new ArrayList<>();
+    private final int memoryLimit;
+    private final File spillDirectory;
+    private PcmSpillFile spill;
+    private boolean spillFailed = false;
+    private short[] scratch;
+    private int size = 0;
+    
+    PcmBuffer() {
+        this(Integer.MAX_VALUE, null);
+    }
+    
+    // memoryLimit is rounded up to whole blocks; without a spill directory it is ignored and
+    // everything stays in memory
+    PcmBuffer(int memoryLimit, File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+        int blocks = (int) (((long) memoryLimit + BLOCK_SAMPLES - 1) / BLOCK_SAMPLES);
+        this.memoryLimit = spillDirectory == null ? Integer.MAX_VALUE : blocks * BLOCK_SAMPLES;
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    // Whether part of the contents is on disk
+    boolean isSpilled() {
+        return spill != null && spill.size() > 0;
+    }
+    
+    void clear() {
+        size = 0;
+        spillFailed = false;
+        if (spill != null) {
+            spill.clear();
+        }
+    }
+    
+    void append(short[] pcm, int offset, int length) {
+        while (length > 0) {
+            if (size >= memoryLimit) {
+                spill(pcm, offset, length);
+                return;
+            }
+            int block = size / BLOCK_SAMPLES;
+            int pos = size % BLOCK_SAMPLES;
+            if (block == blocks.size()) {
+                blocks.add(new short[BLOCK_SAMPLES]);
+            }
+            int count = Math.min(length, BLOCK_SAMPLES - pos);
+            System.arraycopy(pcm, offset, blocks.get(block), pos, count);
+            offset += count;
+            length -= count;
+            size += count;
+        }
+    }
+    
+    // Copies up to length samples starting at sample start into dest[offset...], normalised to
+    // [-1, 1]; returns their number
+    int read(int start, float[] dest, int offset, int length) {
+        length = Math.min(length, size - start);
+        int total = 0;
+        while (total < length) {
+            int pos = start + total;
+            int count;
+            if (pos < memoryLimit) {
+                short[] block = blocks.get(pos / BLOCK_SAMPLES);
+                int blockPos = pos % BLOCK_SAMPLES;
+                count = Math.min(length - total, BLOCK_SAMPLES - blockPos);
+                toFloat(block, blockPos, dest, offset + total, count);
+            } else {
+                if (scratch == null) {
+                    scratch = new short[SCRATCH_SAMPLES];
+                }
+                count = spill.read(pos - memoryLimit, scratch, 0, Math.min(length - total, SCRATCH_SAMPLES));
+                toFloat(scratch, 0, dest, offset + total, count);
+            }
+            total += count;
+        }
+        return Math.max(0, total);
+    }
+    
+    // All samples, normalised to [-1, 1]
+    float[] toFloatArray() {
+        float[] samples = new float[size];
+        read(0, samples, 0, size);
+        return samples;
+    }
+    
+    // Closes the spill file; the buffer must not be used afterwards
+    void release() {
+        if (spill != null) {
+            spill.release();
+            spill = null;
+        }
+    }
+    
+    private void spill(short[] pcm, int offset, int length) {
+        if (spillFailed) {
+            return;
+        }
+        try {
+            if (spill == null) {
+                spill = new PcmSpillFile(spillDirectory);
+            }
+            spill.append(pcm, offset, length);
+            size += length;
+        } catch (IOException e) {
+            // Keep what is there; the recording ends here
+            Log.e(TAG, "Could not spill audio to " + spillDirectory + ", dropping the rest", e);
+            size = memoryLimit + (spill != null ? (int) spill.size() : 0);
+            spillFailed = true;
+        }
+    }
+    
+    private static void toFloat(short[] src, int srcPos, float[] dest, int destPos, int count) {
+        for (int i = 0; i < count; i++) {
+            dest[destPos + i] = src[srcPos + i] / 32768.0f;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.phonematetry.asr;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Lock-free ring of 16-bit PCM with one writer (the capture thread) and any number of readers.
+//
+// Every sample has a sequence number: the n-th sample ever written has sequence n. The writer
+// never waits for anybody; once a reader falls more than the capacity behind, the samples it
+// has not read yet are overwritten and the reader is told how many it lost (an overrun).
+//
+// Two counters make this safe without locks. Before the writer touches a slot it announces the
+// end of the block it is about to write in "claimed", and after writing it publishes the same
+// value in "published". A reader copies what is published, then checks "claimed" again: any
+// sample more than capacity behind the claim may have been overwritten during the copy, and is
+// dropped and counted as lost instead of being returned torn.
+public class PcmRingBuffer {
+    private final short[] ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    
+    // capacity is rounded up to a power of two
+    public PcmRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        ring = new short[size];
+        mask = size - 1;
+    }
+    
+    public int getCapacity() {
+        return ring.length;
+    }
+    
+    // Sequence number of the next sample to be written, i.e. the number written so far
+    public long getWriteSequence() {
+        return published.get();
+    }
+    
+    // Writer side: copies pcm[offset, offset + length) into the ring. Never blocks. Only one
+    // thread may write.
+    public void write(short[] pcm, int offset, int length) {
+        while (length > 0) {
+            // Blocks of at most half the ring, so a reader always has the other half to work in
+            int count = Math.min(length, ring.length / 2);
+            long start = published.get();
+            long end = start + count;
+            claimed.set(end);
+            // The volatile read keeps the slot writes below from moving above the claim
+            claimed.get();
+            
+            int index = (int) (start & mask);
+            int first = Math.min(count, ring.length - index);
+            System.arraycopy(pcm, offset, ring, index, first);
+            System.arraycopy(pcm, offset + first, ring, 0, count - first);
+            published.set(end);
+            
+            offset += count;
+            length -= count;
+        }
+    }
+    
+    // Reader that starts at the next sample written
+    public Reader newReader() {
+        return new Reader(published.get());
+    }
+    
+    // Reader that starts at the given sequence number; if that is no longer in the ring it
+    // starts at the oldest sample still there, and the difference counts as lost
+    public Reader newReader(long sequence) {
+        return new Reader(sequence);
+    }
+    
+    // One reader per consuming thread; readers do not affect each other or the writer
+    public class Reader {
+        private final AtomicLong position = new AtomicLong();
+        private long lostSamples = 0;
+        private int overruns = 0;
+        
+        private Reader(long start) {
+            position.set(start);
+        }
+        
+        // Sequence number of the next sample this reader returns
+        public long getPosition() {
+            return position.get();
+        }
+        
+        // Samples written but not yet read (may exceed the capacity after an overrun)
+        public long available() {
+            return published.get() - position.get();
+        }
+        
+        // Samples skipped because the writer overwrote them before they were read
+        public long getLostSamples() {
+            return lostSamples;
+        }
+        
+        // Number of times samples were lost
+        public int getOverruns() {
+            return overruns;
+        }
+        
+        // Copies up to maxSamples unread samples into dest[offset...] and returns their number,
+        // 0 if there is nothing new. Lost samples are skipped and accounted for.
+        public int read(short[] dest, int offset, int maxSamples) {
+            long end = published.get();
+            long from = position.get();
+            long oldest = end - ring.length;
+            if (from < oldest) {
+                lose(oldest - from);
+                from = oldest;
+            }
+            int count = (int) Math.min(maxSamples, end - from);
+            if (count <= 0) {
+                return 0;
+            }
+            
+            int index = (int) (from & mask);
+            int first = Math.min(count, ring.length - index);
+            System.arraycopy(ring, index, dest, offset, first);
+            System.arraycopy(ring, 0, dest, offset + first, count - first);
+            // The volatile write keeps the copies above from moving below the claim check
+            position.set(from + count);
+            
+            // Slots the writer has claimed since may have been overwritten while we copied
+            long safe = claimed.get() - ring.length;
+            if (safe > from) {
+                int torn = (int) Math.min(count, safe - from);
+                lose(torn);
+                count -= torn;
+                System.arraycopy(dest, offset + torn, dest, offset, count);
+            }
+            return count;
+        }
+        
+        // Skips everything written so far
+        public void skipToEnd() {
+            position.set(published.get());
+        }
+        
+        private void lose(long samples) {
+            lostSamples += samples;
+            overruns++;
+        }
+    }
+}
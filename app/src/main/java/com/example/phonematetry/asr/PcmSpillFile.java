@@ -0,0 +1,101 @@
+package com.example.phonematetry.asr;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+// Append-only store for 16-bit PCM in a memory-mapped file, for audio that should not live on
+// the Java heap.
+//
+// The file grows in fixed-size mapped regions, so writing is a plain copy into mapped memory and
+// the kernel pages it out to disk as it sees fit. The file is unlinked right after it is opened:
+// it disappears with the process even if release() is never called, and nothing is left behind
+// in the directory after a crash.
+//
+// Not thread-safe; the recorder writes a recording from its capture thread and hands it over
+// before anybody reads it.
+class PcmSpillFile {
+    private static final String TAG = "PcmSpillFile";
+    
+    // About 33 seconds at 16 kHz per region
+    private static final int REGION_SAMPLES = 1 << 19;
+    
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ArrayList<ShortBuffer> regions = new ArrayList<>();
+    private long size = 0;
+    
+    PcmSpillFile(File directory) throws IOException {
+        File path = File.createTempFile("recording", ".pcm", directory);
+        file = new RandomAccessFile(path, "rw");
+        channel = file.getChannel();
+        if (!path.delete()) {
+            path.deleteOnExit();
+        }
+    }
+    
+    long size() {
+        return size;
+    }
+    
+    // Forgets the contents; the mapped regions are kept for the next recording
+    void clear() {
+        size = 0;
+    }
+    
+    void append(short[] pcm, int offset, int length) throws IOException {
+        while (length > 0) {
+            int region = (int) (size / REGION_SAMPLES);
+            int pos = (int) (size % REGION_SAMPLES);
+            if (region == regions.size()) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE,
+                        (long) region * REGION_SAMPLES * 2, REGION_SAMPLES * 2);
+                mapped.order(ByteOrder.nativeOrder());
+                regions.add(mapped.asShortBuffer());
+            }
+            int count = Math.min(length, REGION_SAMPLES - pos);
+            ShortBuffer buffer = regions.get(region);
+            buffer.position(pos);
+            buffer.put(pcm, offset, count);
+            offset += count;
+            length -= count;
+            size += count;
+        }
+    }
+    
+    // Copies up to length samples starting at sample start into dest[offset...]; returns their
+    // number
+    int read(long start, short[] dest, int offset, int length) {
+        int total = 0;
+        length = (int) Math.min(length, Math.max(0, size - start));
+        while (total < length) {
+            int region = (int) (start / REGION_SAMPLES);
+            int pos = (int) (start % REGION_SAMPLES);
+            int count = Math.min(length - total, REGION_SAMPLES - pos);
+            ShortBuffer buffer = regions.get(region);
+            buffer.position(pos);
+            buffer.get(dest, offset + total, count);
+            start += count;
+            total += count;
+        }
+        return total;
+    }
+    
+    // Closes the file; the mappings go away once they are garbage collected
+    void release() {
+        regions.clear();
+        size = 0;
+        try {
+            file.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing spill file", e);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.phonematetry.asr;
+
+import com.example.phonematetry.utils.SampleSource;
+
+// A finished recording, read back as a stream. Long recordings are partly on disk (see
+// PcmBuffer), so consumers should read them in chunks rather than with toFloatArray().
+//
+// release() hands the storage back to the recorder for the next recording; the recording must
+// not be read afterwards. Reading is not thread-safe.
+public class RecordedAudio implements SampleSource {
+    private final PcmBuffer buffer;
+    private final AudioRecorder recorder;
+    private final int sampleRate;
+    private int position = 0;
+    private boolean released = false;
+    
+    RecordedAudio(PcmBuffer buffer, AudioRecorder recorder, int sampleRate) {
+        this.buffer = buffer;
+        this.recorder = recorder;
+        this.sampleRate = sampleRate;
+    }
+    
+    public int getSampleRate() {
+        return sampleRate;
+    }
+    
+    public long getDurationMs() {
+        return buffer.size() * 1000L / sampleRate;
+    }
+    
+    // Whether part of the recording had to go to disk
+    public boolean isSpilled() {
+        return buffer.isSpilled();
+    }
+    
+    @Override
+    public int getFrameCount() {
+        return buffer.size();
+    }
+    
+    @Override
+    public int getPosition() {
+        return position;
+    }
+    
+    @Override
+    public void seek(int frame) {
+        position = Math.max(0, Math.min(frame, buffer.size()));
+    }
+    
+    @Override
+    public int read(float[] dest, int offset, int maxFrames) {
+        if (released) {
+            throw new IllegalStateException("Recording already released");
+        }
+        int count = buffer.read(position, dest, offset, maxFrames);
+        if (count <= 0) {
+            return -1;
+        }
+        position += count;
+        return count;
+    }
+    
+    // The whole recording at once, normalised to [-1, 1]
+    public float[] toFloatArray() {
+        if (released) {
+            throw new IllegalStateException("Recording already released");
+        }
+        return buffer.toFloatArray();
+    }
+    
+    public void release() {
+        if (!released) {
+            released = true;
+            recorder.recycle(buffer);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.phonematetry.asr;
+
+import com.example.phonematetry.utils.WhisperUtil;
+
+import java.util.Arrays;
+
+// Decides whether a recording contains speech at all, from the raw log-mel frames the
+// streaming spectrogram has already computed, so an accidental tap or a silent recording never
+// reaches the model.
+//
+// A frame counts as voiced when it is loud enough and its spectrum is not flat: its energy has
+// to clear both an absolute level and the recording's own noise floor (a low percentile of the
+// frame energies) by a margin, and the spectral flatness over the mel bands (geometric over
+// arithmetic mean of the band powers) has to be low, as it is for the harmonics and formants
+// of a voice and not for hiss, hum-free room noise or the broadband click of a tap. The
+// recording has speech when at least MIN_SPEECH_FRAMES frames are voiced.
+class SpeechDetector {
+    private static final double LN10 = Math.log(10.0);
+    
+    // Frame energy (summed mel power, in dB) of a full-scale sine; MIN_LEVEL_DB is relative to it
+    private static final float FULL_SCALE_DB = 29.0f;
+    private static final float MIN_LEVEL_DB = -70.0f;
+    private static final float MIN_SNR_DB = 8.0f;
+    // Percentile of the frame energies taken as the noise floor
+    private static final float NOISE_PERCENTILE = 0.1f;
+    private static final float MAX_FLATNESS = 0.3f;
+    // 10 ms frames; about 150 ms of voiced frames, more than any tap or click lasts
+    private static final int MIN_SPEECH_FRAMES = 15;
+    
+    private final int nMel;
+    private float[] energyDb = new float[0];
+    private float[] sorted = new float[0];
+    private boolean[] flat = new boolean[0];
+    
+    // Result details of the last hasSpeech() call, for logging
+    private int voicedFrames;
+    private float noiseFloorDb;
+    
+    SpeechDetector(int nMel) {
+        this.nMel = nMel;
+    }
+    
+    // rawMel holds nMel rows of nLen frames of log10 mel power, as produced by
+    // StreamingMelSpectrogram; only frames [0, nFrames) are looked at
+    boolean hasSpeech(float[] rawMel, int nLen, int nFrames) {
+        voicedFrames = 0;
+        noiseFloorDb = Float.NaN;
+        if (rawMel == null || nFrames < MIN_SPEECH_FRAMES) {
+            return false;
+        }
+        ensureCapacity(nFrames);
+        
+        // Band powers are summed frame by frame while walking the rows, so the array is read in
+        // memory order
+        float[] sum = sorted;
+        float[] logSum = energyDb;
+        Arrays.fill(sum, 0, nFrames, 0.0f);
+        Arrays.fill(logSum, 0, nFrames, 0.0f);
+        for (int m = 0; m < nMel; m++) {
+            int row = m * nLen;
+            for (int f = 0; f < nFrames; f++) {
+                float value = rawMel[row + f];
+                sum[f] += (float) Math.exp(value * LN10);
+                logSum[f] += value;
+            }
+        }
+        for (int f = 0; f < nFrames; f++) {
+            double arithmetic = sum[f] / nMel;
+            double geometric = Math.exp(logSum[f] / nMel * LN10);
+            flat[f] = geometric > MAX_FLATNESS * arithmetic;
+            energyDb[f] = (float) (10.0 * Math.log10(sum[f]));
+        }
+        
+        System.arraycopy(energyDb, 0, sorted, 0, nFrames);
+        Arrays.sort(sorted, 0, nFrames);
+        noiseFloorDb = sorted[(int) (NOISE_PERCENTILE * (nFrames - 1))];
+        float threshold = Math.max(FULL_SCALE_DB + MIN_LEVEL_DB, noiseFloorDb + MIN_SNR_DB);
+        
+        for (int f = 0; f < nFrames; f++) {
+            if (!flat[f] && energyDb[f] > threshold) {
+                voicedFrames++;
+            }
+        }
+        return voicedFrames >= MIN_SPEECH_FRAMES;
+    }
+    
+    int getVoicedFrames() {
+        return voicedFrames;
+    }
+    
+    float getNoiseFloorDb() {
+        return noiseFloorDb;
+    }
+    
+    private void ensureCapacity(int nFrames) {
+        if (energyDb.length < nFrames) {
+            int size = Math.max(nFrames, WhisperUtil.WHISPER_MEL_LEN);
+            energyDb = new float[size];
+            sorted = new float[size];
+            flat = new boolean[size];
+        }
+    }
+}
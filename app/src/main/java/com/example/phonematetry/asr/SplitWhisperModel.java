@@ -0,0 +1,302 @@
+package com.example.phonematetry.asr;
+
+import android.util.Log;
+
+import com.example.phonematetry.utils.WhisperUtil;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+// Whisper exported as two graphs, an encoder run once per window and a decoder run once per
+// token, so decoding stops as soon as the transcript ends instead of always filling a fixed-size
+// token tensor.
+//
+// Expected graphs:
+//   encoder: input 0 is the mel spectrogram (float32, 1 x 80 x 3000), output 0 the audio
+//            features.
+//   decoder: input 0 is the current token and input 1 its position in the sequence (int32, one
+//            element each), input 2 the encoder output; all further inputs are cache tensors
+//            (self- and cross-attention keys/values). Output 0 are the float32 logits over the
+//            vocabulary, followed by the updated caches in the same order and sizes as the
+//            cache inputs.
+// The caches are zeroed for every window and then passed from one step's outputs to the next
+// step's inputs by swapping two sets of buffers, so nothing is copied on the Java side.
+//
+// Decoding is greedy over the text tokens and EOT. It stops at EOT, when the output runs into a
+// repetition loop, or after MAX_TOKENS.
+class SplitWhisperModel {
+    private static final String TAG = "SplitWhisperModel";
+    
+    // Whisper's own sampling limit (half the 448-token text context)
+    static final int MAX_TOKENS = 224;
+    
+    // A loop is a block of up to MAX_LOOP_PERIOD tokens repeated at least MIN_LOOP_REPEATS times
+    // in a row, covering at least MIN_LOOP_TOKENS tokens
+    private static final int MAX_LOOP_PERIOD = 16;
+    private static final int MIN_LOOP_REPEATS = 3;
+    private static final int MIN_LOOP_TOKENS = 12;
+    
+    private static final int DECODER_INPUTS = 3;
+    
+    // One decoder step of the greedy loop
+    interface TokenStep {
+        // Feeds token at position and returns the most likely text token or EOT to follow it
+        int next(int token, int position);
+    }
+    
+    private final Interpreter encoder;
+    private final Interpreter decoder;
+    private final boolean multilingual;
+    
+    private final Object[] encoderInputs = new Object[1];
+    private final Map<Integer, Object> encoderOutputs = new HashMap<>();
+    private final ByteBuffer audioFeatures;
+    
+    private final Object[] decoderInputs;
+    private final Map<Integer, Object> decoderOutputs = new HashMap<>();
+    private final ByteBuffer tokenInput;
+    private final ByteBuffer positionInput;
+    private final ByteBuffer logits;
+    private final FloatBuffer logitsFloats;
+    private final int nLogits;
+    // Cache buffers: one set is the input of the next step, the other receives its output
+    private ByteBuffer[] cacheIn;
+    private ByteBuffer[] cacheOut;
+    private final TokenStep nextToken = this::nextToken;
+    private int eot;
+    
+    // Details of the last decode(), for logging and timings
+    private int steps;
+    private long encoderNanos;
+    private long decoderNanos;
+    
+    SplitWhisperModel(ByteBuffer encoderModel, ByteBuffer decoderModel, Interpreter.Options options,
+                      boolean multilingual) {
+        this.multilingual = multilingual;
+        encoder = new Interpreter(encoderModel, options);
+        try {
+            decoder = new Interpreter(decoderModel, options);
+        } catch (RuntimeException e) {
+            encoder.close();
+            throw e;
+        }
+        
+        try {
+            audioFeatures = allocate(encoder.getOutputTensor(0).numBytes());
+            encoderOutputs.put(0, audioFeatures);
+            
+            int nCaches = decoder.getInputTensorCount() - DECODER_INPUTS;
+            if (nCaches < 0 || decoder.getOutputTensorCount() != 1 + nCaches) {
+                throw new IllegalArgumentException("Decoder has " + decoder.getInputTensorCount()
+                        + " inputs and " + decoder.getOutputTensorCount() + " outputs, expected "
+                        + DECODER_INPUTS + " + n and 1 + n");
+            }
+            if (decoder.getInputTensor(2).numBytes() != audioFeatures.capacity()) {
+                throw new IllegalArgumentException("Decoder expects " + decoder.getInputTensor(2).numBytes()
+                        + " bytes of audio features, encoder produces " + audioFeatures.capacity());
+            }
+            Tensor logitsTensor = decoder.getOutputTensor(0);
+            if (logitsTensor.dataType() != DataType.FLOAT32) {
+                throw new IllegalArgumentException("Decoder logits are " + logitsTensor.dataType()
+                        + ", expected FLOAT32");
+            }
+            
+            tokenInput = allocate(decoder.getInputTensor(0).numBytes());
+            positionInput = allocate(decoder.getInputTensor(1).numBytes());
+            logits = allocate(logitsTensor.numBytes());
+            logitsFloats = logits.asFloatBuffer();
+            nLogits = logitsFloats.capacity();
+            
+            cacheIn = new ByteBuffer[nCaches];
+            cacheOut = new ByteBuffer[nCaches];
+            long cacheBytes = 0;
+            for (int i = 0; i < nCaches; i++) {
+                int bytes = decoder.getInputTensor(DECODER_INPUTS + i).numBytes();
+                if (decoder.getOutputTensor(1 + i).numBytes() != bytes) {
+                    throw new IllegalArgumentException("Cache " + i + ": output size "
+                            + decoder.getOutputTensor(1 + i).numBytes() + " != input size " + bytes);
+                }
+                cacheIn[i] = allocate(bytes);
+                cacheOut[i] = allocate(bytes);
+                cacheBytes += 2L * bytes;
+            }
+            
+            decoderInputs = new Object[DECODER_INPUTS + nCaches];
+            decoderInputs[0] = tokenInput;
+            decoderInputs[1] = positionInput;
+            decoderInputs[2] = audioFeatures;
+            decoderOutputs.put(0, logits);
+            Log.d(TAG, "Decoder: " + nLogits + " logits, " + nCaches + " cache tensors, "
+                    + cacheBytes / 1024 + " KB of cache buffers");
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+    
+    // Transcribes the mel spectrogram in mel into out as text tokens (no SOT, task or EOT) and
+    // returns their number
+    int decode(ByteBuffer mel, WhisperUtil whisperUtil, int[] out) {
+        long start = System.nanoTime();
+        mel.rewind();
+        audioFeatures.rewind();
+        encoderInputs[0] = mel;
+        encoder.runForMultipleInputsOutputs(encoderInputs, encoderOutputs);
+        long encoded = System.nanoTime();
+        
+        for (ByteBuffer cache : cacheIn) {
+            zero(cache);
+        }
+        steps = 0;
+        
+        // Prompt: SOT [language transcribe] no-timestamps. The multilingual model picks the
+        // language from the logits after SOT.
+        eot = whisperUtil.getTokenEOT();
+        int position = 0;
+        step(whisperUtil.getTokenSOT(), position++);
+        if (multilingual) {
+            int language = argmax(whisperUtil.getTokenSOT() + 1, whisperUtil.getTokenTranslate());
+            step(language, position++);
+            step(whisperUtil.getTokenTranscribe(), position++);
+        }
+        int count = greedyDecode(nextToken, whisperUtil.getTokenNOT(), position, eot, out);
+        
+        encoderNanos = encoded - start;
+        decoderNanos = System.nanoTime() - encoded;
+        return count;
+    }
+    
+    int getInputBytes() {
+        return encoder.getInputTensor(0).numBytes();
+    }
+    
+    int getSteps() {
+        return steps;
+    }
+    
+    long getEncoderNanos() {
+        return encoderNanos;
+    }
+    
+    long getDecoderNanos() {
+        return decoderNanos;
+    }
+    
+    void close() {
+        encoder.close();
+        if (decoder != null) {
+            decoder.close();
+        }
+    }
+    
+    // Greedy decoding after the prompt: starting from its last token at position, appends the
+    // tokens step chooses to out until EOT, a repetition loop (which is cut off again) or
+    // min(out.length, MAX_TOKENS) tokens; returns their number
+    static int greedyDecode(TokenStep step, int promptToken, int position, int eot, int[] out) {
+        int count = 0;
+        int limit = Math.min(out.length, MAX_TOKENS);
+        int token = step.next(promptToken, position++);
+        while (count < limit && token != eot) {
+            out[count++] = token;
+            
+            int loop = loopLength(out, count);
+            if (loop > 0) {
+                Log.d(TAG, "Repetition loop of " + loop + " tokens, stopping");
+                count -= loop;
+                break;
+            }
+            if (count < limit) {
+                token = step.next(token, position++);
+            }
+        }
+        return count;
+    }
+    
+    // Only text tokens and EOT; timestamps and other special tokens are never wanted
+    private int nextToken(int token, int position) {
+        step(token, position);
+        return argmax(0, eot + 1);
+    }
+    
+    // Runs the decoder on one token; the logits end up in logits and the caches are swapped
+    private void step(int token, int position) {
+        tokenInput.putInt(0, token);
+        positionInput.putInt(0, position);
+        tokenInput.rewind();
+        positionInput.rewind();
+        audioFeatures.rewind();
+        logits.rewind();
+        for (int i = 0; i < cacheIn.length; i++) {
+            cacheIn[i].rewind();
+            cacheOut[i].rewind();
+            decoderInputs[DECODER_INPUTS + i] = cacheIn[i];
+            decoderOutputs.put(1 + i, cacheOut[i]);
+        }
+        
+        decoder.runForMultipleInputsOutputs(decoderInputs, decoderOutputs);
+        steps++;
+        
+        ByteBuffer[] swap = cacheIn;
+        cacheIn = cacheOut;
+        cacheOut = swap;
+    }
+    
+    // Most likely token in [from, to) according to the last step's logits
+    private int argmax(int from, int to) {
+        to = Math.min(to, nLogits);
+        int best = from;
+        float bestValue = Float.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            float value = logitsFloats.get(i);
+            if (value > bestValue) {
+                bestValue = value;
+                best = i;
+            }
+        }
+        return best;
+    }
+    
+    // Number of tokens to drop from the end of tokens[0, count) if it ends in a loop (all
+    // repeats after the first), otherwise 0
+    static int loopLength(int[] tokens, int count) {
+        for (int period = 1; period <= MAX_LOOP_PERIOD; period++) {
+            int repeats = Math.max(MIN_LOOP_REPEATS, (MIN_LOOP_TOKENS + period - 1) / period);
+            int span = repeats * period;
+            if (span > count) {
+                break;
+            }
+            boolean loop = true;
+            for (int i = count - span + period; i < count && loop; i++) {
+                loop = tokens[i] == tokens[i - period];
+            }
+            if (loop) {
+                return span - period;
+            }
+        }
+        return 0;
+    }
+    
+    private static ByteBuffer allocate(int bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes);
+        buffer.order(ByteOrder.nativeOrder());
+        return buffer;
+    }
+    
+    private static void zero(ByteBuffer buffer) {
+        buffer.clear();
+        while (buffer.remaining() >= 8) {
+            buffer.putLong(0L);
+        }
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+        buffer.clear();
+    }
+}
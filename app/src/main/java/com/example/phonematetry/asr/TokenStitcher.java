@@ -0,0 +1,94 @@
+package com.example.phonematetry.asr;
+
+import com.example.phonematetry.utils.WhisperUtil;
+
+// Joins the token streams of overlapping audio windows into one transcript.
+//
+// Consecutive windows share a few seconds of audio, so the end of one window's tokens and the
+// start of the next one's describe the same words. The longest run of identical tokens between
+// the tail of what we have and the head of the new window marks where they line up: everything
+// before the run is kept from the old stream, everything from the run on comes from the new
+// window (which heard those words with more context). Without a run of at least MIN_MATCH
+// tokens the windows are simply concatenated.
+//
+// Only runs that fit into the shared audio count: a token d tokens before the end of the old
+// stream and j tokens into the new window lies in the overlap only if d + j is at most what the
+// overlap can hold. A common phrase further back is a repetition, not the seam.
+class TokenStitcher {
+    // Audio shared by consecutive windows, in seconds
+    private static final int OVERLAP_SECONDS = (WhisperTensorflowLite.WINDOW_SAMPLES
+            - WhisperTensorflowLite.WINDOW_STRIDE) / WhisperUtil.WHISPER_SAMPLE_RATE;
+    // Upper bound for fast speech, about four words a second
+    private static final int MAX_TOKENS_PER_SECOND = 6;
+    // Tokens the overlap can hold, which bounds both the old tail and the new head searched
+    private static final int SEARCH_TOKENS = OVERLAP_SECONDS * MAX_TOKENS_PER_SECOND;
+    // Two-token phrases like "of the" match by chance far too often
+    private static final int MIN_MATCH = 3;
+    
+    private int[] tokens = new int[512];
+    private int count = 0;
+    
+    void reset() {
+        count = 0;
+    }
+    
+    int size() {
+        return count;
+    }
+    
+    int[] getTokens() {
+        return tokens;
+    }
+    
+    // Adds window[0, n); returns the number of tokens of the old stream that were replaced
+    int append(int[] window, int n) {
+        int tailStart = Math.max(0, count - SEARCH_TOKENS);
+        int headEnd = Math.min(n, SEARCH_TOKENS);
+    
+        int bestLength = 0;
+        int bestTail = 0;
+        int bestHead = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = tailStart; i < count; i++) {
+            for (int j = 0; j < headEnd; j++) {
+                // Tokens between the two ends of the run and the seam
+                int distance = count - i + j;
+                if (distance > SEARCH_TOKENS) {
+                    break;
+                }
+                int length = 0;
+                while (i + length < count && j + length < n && tokens[i + length] == window[j + length]) {
+                    length++;
+                }
+                // Longest run first; of equally long ones, the one nearest the seam
+                if (length > bestLength || (length == bestLength && distance < bestDistance)) {
+                    bestLength = length;
+                    bestTail = i;
+                    bestHead = j;
+                    bestDistance = distance;
+                }
+            }
+        }
+    
+        int replaced = 0;
+        int from = 0;
+        if (bestLength >= MIN_MATCH) {
+            replaced = count - bestTail;
+            count = bestTail;
+            from = bestHead;
+        }
+    
+        ensureCapacity(count + n - from);
+        System.arraycopy(window, from, tokens, count, n - from);
+        count += n - from;
+        return replaced;
+    }
+    
+    private void ensureCapacity(int needed) {
+        if (needed > tokens.length) {
+            int[] grown = new int[Math.max(needed, 2 * tokens.length)];
+            System.arraycopy(tokens, 0, grown, 0, count);
+            tokens = grown;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.phonematetry.asr;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// Finds the fastest interpreter setup for this device.
+//
+// Every combination of model variant, interpreter thread count and XNNPACK on/off is timed on a
+// reference clip, and the winner is stored in SharedPreferences. Model variants are the files
+// next to the model named like it with a "-" or "_" suffix (e.g. whisper-tiny.en-int8.tflite);
+// a variant is only eligible if it transcribes the clip the same way as the model itself. The
+// model's own setups are only timed: thread count and XNNPACK change float rounding, not the
+// model, so a transcript that differs by a token there is no reason to drop them.
+// The stored result is keyed by the size and modification time of all candidate model files,
+// so replacing or adding a model triggers a new calibration. If no candidate works, that is
+// stored as well, so the default setup is used without calibrating again on every start.
+//
+// Real recognition comes first: the calibrator waits while a recording or transcription is in
+// progress, and a timed run that overlapped one is thrown away and repeated.
+public class WhisperCalibrator {
+    private static final String TAG = "WhisperCalibrator";
+    
+    private static final String PREFS_NAME = "whisper_tuning";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_MODEL = "model";
+    private static final String KEY_THREADS = "threads";
+    private static final String KEY_XNNPACK = "xnnpack";
+    private static final String KEY_INVOKE_MS = "invoke_ms";
+    // Set when calibration found nothing better than the default setup
+    private static final String KEY_DEFAULT = "default";
+    
+    // Timed runs per configuration, after one warm-up run
+    private static final int RUNS = 3;
+    // How often to check whether recognition has finished
+    private static final long IDLE_POLL_MS = 200;
+    
+    // The recognition work calibration must stay out of the way of
+    public interface Activity {
+        // Whether a recording or transcription is in progress
+        boolean isBusy();
+        // Recordings and transcriptions started so far
+        long getStarted();
+    }
+    
+    public static class Config {
+        public final String modelPath;
+        public final int threads;
+        public final boolean useXnnpack;
+        // Median invoke time measured during calibration
+        public final double invokeMs;
+        
+        Config(String modelPath, int threads, boolean useXnnpack, double invokeMs) {
+            this.modelPath = modelPath;
+            this.threads = threads;
+            this.useXnnpack = useXnnpack;
+            this.invokeMs = invokeMs;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s, %d threads, xnnpack %s, %.1f ms",
+                    new File(modelPath).getName(), threads, useXnnpack ? "on" : "off", invokeMs);
+        }
+    }
+    
+    private final Context context;
+    
+    public WhisperCalibrator(Context context) {
+        this.context = context;
+    }
+    
+    // Whether this model has been calibrated since its files last changed, whatever the outcome
+    public boolean isCalibrated(String modelPath) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return fingerprint(modelPath).equals(prefs.getString(KEY_FINGERPRINT + ":" + modelPath, null));
+    }
+    
+    // Stored result for this model, or null if there is none, calibration settled on the default
+    // setup or the model files changed since
+    public Config loadTuned(String modelPath) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String fingerprint = fingerprint(modelPath);
+        if (!fingerprint.equals(prefs.getString(KEY_FINGERPRINT + ":" + modelPath, null))
+                || prefs.getBoolean(KEY_DEFAULT + ":" + modelPath, false)) {
+            return null;
+        }
+        String tunedModel = prefs.getString(KEY_MODEL + ":" + modelPath, null);
+        if (tunedModel == null || !new File(tunedModel).isFile()) {
+            return null;
+        }
+        return new Config(tunedModel,
+                prefs.getInt(KEY_THREADS + ":" + modelPath, 4),
+                prefs.getBoolean(KEY_XNNPACK + ":" + modelPath, true),
+                prefs.getFloat(KEY_INVOKE_MS + ":" + modelPath, 0f));
+    }
+    
+    // Times every candidate setup on clip and stores the fastest; returns null if none worked.
+    // Takes a few seconds per candidate while activity is idle, so run it off the main thread.
+    // If interrupted, stops without storing anything, so it runs again on the next start.
+    public Config calibrate(String modelPath, String vocabPath, boolean multilingual, float[] clip,
+                            Activity activity) throws InterruptedException {
+        List<String> models = findVariants(modelPath);
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int threads : new int[] {1, 2, 4, cores}) {
+            if (threads <= cores && !threadCounts.contains(threads)) {
+                threadCounts.add(threads);
+            }
+        }
+        
+        // The model itself comes first and defines the transcript its variants must match
+        String reference = null;
+        Config best = null;
+        nextModel:
+        for (String model : models) {
+            boolean isVariant = !model.equals(models.get(0));
+            for (boolean useXnnpack : new boolean[] {true, false}) {
+                for (int threads : threadCounts) {
+                    WhisperTensorflowLite engine = new WhisperTensorflowLite(context);
+                    engine.setInterpreterOptions(threads, useXnnpack);
+                    try {
+                        awaitIdle(activity);
+                        if (!engine.initialize(model, vocabPath, multilingual)) {
+                            continue;
+                        }
+                        String transcript = engine.transcribeBuffer(clip);
+                        if (!isVariant) {
+                            if (reference == null) {
+                                reference = transcript;
+                            }
+                        } else if (!transcript.equals(reference)) {
+                            Log.d(TAG, "Skipping " + new File(model).getName() + ": transcript differs");
+                            continue nextModel;
+                        }
+                        
+                        long[] invoke = new long[RUNS];
+                        for (int run = 0; run < RUNS; ) {
+                            long started = awaitIdle(activity);
+                            engine.transcribeBuffer(clip);
+                            if (activity.getStarted() != started || activity.isBusy()) {
+                                Log.d(TAG, "Discarding a run that overlapped recognition");
+                                continue;
+                            }
+                            invoke[run++] = engine.getInvokeNanos();
+                        }
+                        Arrays.sort(invoke);
+                        Config config = new Config(model, threads, useXnnpack, invoke[RUNS / 2] / 1e6);
+                        Log.d(TAG, "Candidate: " + config);
+                        if (best == null || config.invokeMs < best.invokeMs) {
+                            best = config;
+                        }
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        Log.w(TAG, "Candidate failed: " + model + ", " + threads + " threads", e);
+                    } finally {
+                        engine.deinitialize();
+                    }
+                }
+            }
+        }
+        
+        if (best != null) {
+            save(modelPath, best);
+            Log.d(TAG, "Calibrated: " + best);
+        } else {
+            saveDefault(modelPath);
+            Log.d(TAG, "Calibrated: default, no candidate worked");
+        }
+        return best;
+    }
+    
+    // Waits until no recognition is running; returns the started count seen then, so a run that
+    // overlaps recognition started after this can tell
+    private static long awaitIdle(Activity activity) throws InterruptedException {
+        while (true) {
+            long started = activity.getStarted();
+            if (!activity.isBusy()) {
+                return started;
+            }
+            Thread.sleep(IDLE_POLL_MS);
+        }
+    }
+    
+    private void save(String modelPath, Config config) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putString(KEY_FINGERPRINT + ":" + modelPath, fingerprint(modelPath))
+                .putString(KEY_MODEL + ":" + modelPath, config.modelPath)
+                .putInt(KEY_THREADS + ":" + modelPath, config.threads)
+                .putBoolean(KEY_XNNPACK + ":" + modelPath, config.useXnnpack)
+                .putFloat(KEY_INVOKE_MS + ":" + modelPath, (float) config.invokeMs)
+                .remove(KEY_DEFAULT + ":" + modelPath)
+                .apply();
+    }
+    
+    private void saveDefault(String modelPath) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putString(KEY_FINGERPRINT + ":" + modelPath, fingerprint(modelPath))
+                .putBoolean(KEY_DEFAULT + ":" + modelPath, true)
+                .remove(KEY_MODEL + ":" + modelPath)
+                .apply();
+    }
+    
+    // The model itself first, then its variants in name order
+    static List<String> findVariants(String modelPath) {
+        File model = new File(modelPath);
+        List<String> models = new ArrayList<>();
+        models.add(model.getPath());
+        
+        String name = model.getName();
+        String base = name.endsWith(".tflite") ? name.substring(0, name.length() - ".tflite".length()) : name;
+        File[] files = model.getAbsoluteFile().getParentFile().listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                String other = file.getName();
+                if (other.length() > base.length() + ".tflite".length() && other.startsWith(base)
+                        && (other.charAt(base.length()) == '-' || other.charAt(base.length()) == '_')
+                        && other.endsWith(".tflite") && file.isFile()) {
+                    models.add(file.getPath());
+                }
+            }
+        }
+        return models;
+    }
+    
+    private static String fingerprint(String modelPath) {
+        StringBuilder sb = new StringBuilder();
+        for (String path : findVariants(modelPath)) {
+            File file = new File(path);
+            sb.append(file.getName()).append('/').append(file.length()).append('/')
+                    .append(file.lastModified()).append(';');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.phonematetry.asr;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Several Whisper engines working in parallel, for offline work such as evaluating large sets of
+// recorded clips.
+//
+// Every engine has its own interpreter and buffers, but all interpreters run off one mapping of
+// the model file, and the cores are divided between the engines. Submitting blocks once
+// maxPending jobs are queued or running, so a producer can never queue up more audio than the
+// pool is able to keep up with.
+public class WhisperEnginePool {
+    private static final String TAG = "WhisperEnginePool";
+    
+    private final Context context;
+    private final int size;
+    private final Semaphore pending;
+    private final BlockingQueue<WhisperTensorflowLite> idle;
+    private final List<WhisperTensorflowLite> engines = new ArrayList<>();
+    private ExecutorService executor;
+    
+    private interface Job<T> {
+        T run(WhisperTensorflowLite engine) throws Exception;
+    }
+    
+    public WhisperEnginePool(Context context, int size, int maxPending) {
+        this.context = context;
+        this.size = Math.max(1, size);
+        this.pending = new Semaphore(Math.max(1, maxPending));
+        this.idle = new ArrayBlockingQueue<>(this.size);
+    }
+    
+    // One engine per two cores, with room for two jobs per engine to be waiting
+    public WhisperEnginePool(Context context) {
+        this(context, Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+                2 * Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+    
+    public boolean initialize(String modelPath, String vocabPath, boolean multilingual) throws IOException {
+        MappedByteBuffer modelBuffer = WhisperTensorflowLite.loadModelFile(modelPath);
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / size);
+        
+        for (int i = 0; i < size; i++) {
+            WhisperTensorflowLite engine = new WhisperTensorflowLite(context);
+            engine.setThreadBudget(threads);
+            if (!engine.initialize(modelBuffer, vocabPath, multilingual)) {
+                Log.e(TAG, "Failed to initialize engine " + i);
+                deinitialize();
+                return false;
+            }
+            engines.add(engine);
+            idle.add(engine);
+        }
+        
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(size, runnable -> {
+            Thread thread = new Thread(runnable, "whisper-pool-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Log.d(TAG, "Initialized " + size + " engines with " + threads + " threads each");
+        return true;
+    }
+    
+    public int getSize() {
+        return size;
+    }
+    
+    // Queues one clip; blocks while the pool is saturated
+    public Future<String> transcribeAsync(float[] samples) throws InterruptedException {
+        return submit(engine -> engine.transcribeBuffer(samples));
+    }
+    
+    public Future<String> transcribeFileAsync(String wavePath) throws InterruptedException {
+        return submit(engine -> engine.transcribeFile(wavePath));
+    }
+    
+    // Transcribes all clips across the pool; results are in input order
+    public List<String> transcribeBatch(List<float[]> clips) throws InterruptedException, ExecutionException {
+        List<Future<String>> futures = new ArrayList<>(clips.size());
+        for (float[] clip : clips) {
+            futures.add(transcribeAsync(clip));
+        }
+        List<String> results = new ArrayList<>(clips.size());
+        for (Future<String> future : futures) {
+            results.add(future.get());
+        }
+        return results;
+    }
+    
+    // Long-form transcription with the windows spread over the pool instead of run one by one
+    public String transcribeLong(float[] samples) throws InterruptedException, ExecutionException {
+        int windowSamples = WhisperTensorflowLite.WINDOW_SAMPLES;
+        int stride = WhisperTensorflowLite.WINDOW_STRIDE;
+        int nWindows = samples.length <= windowSamples ? 1
+                : 1 + (samples.length - windowSamples + stride - 1) / stride;
+        
+        List<Future<int[]>> windows = new ArrayList<>(nWindows);
+        for (int w = 0; w < nWindows; w++) {
+            int start = w * stride;
+            int count = Math.min(windowSamples, samples.length - start);
+            windows.add(submit(engine -> engine.transcribeWindowTokens(samples, start, count)));
+        }
+        
+        TokenStitcher stitcher = new TokenStitcher();
+        for (Future<int[]> window : windows) {
+            int[] windowTokens = window.get();
+            stitcher.append(windowTokens, windowTokens.length);
+        }
+        return engines.get(0).decodeTokens(stitcher.getTokens(), stitcher.size());
+    }
+    
+    private <T> Future<T> submit(Job<T> job) throws InterruptedException {
+        if (executor == null) {
+            throw new IllegalStateException("Pool not initialized");
+        }
+        pending.acquire();
+        try {
+            return executor.submit(() -> {
+                WhisperTensorflowLite engine = idle.take();
+                try {
+                    return job.run(engine);
+                } finally {
+                    idle.put(engine);
+                    pending.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.release();
+            throw e;
+        }
+    }
+    
+    // Waits for queued jobs to finish, then releases all interpreters
+    public void deinitialize() {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted while waiting for pending transcriptions");
+                Thread.currentThread().interrupt();
+            }
+            executor = null;
+        }
+        for (WhisperTensorflowLite engine : engines) {
+            engine.deinitialize();
+        }
+        engines.clear();
+        idle.clear();
+        Log.d(TAG, "Engine pool deinitialized");
+    }
+}
@@ -4,6 +4,9 @@ import android.content.Context;
 import android.util.Log;
 
 import com.example.phonematetry.engine.WhisperEngine;
+import com.example.phonematetry.utils.StreamingMelSpectrogram;
+import com.example.phonematetry.utils.SampleSource;
+import com.example.phonematetry.utils.WavReader;
 import com.example.phonematetry.utils.WhisperUtil;
 
 import org.tensorflow.lite.Interpreter;
@@ -13,20 +16,89 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class WhisperTensorflowLite implements WhisperEngine {
     private static final String TAG = "WhisperTensorflowLite";
     
+    private static final int INTERPRETER_THREADS = 4;
+    
+    // Mel spectrogram frames are split across all cores while the user waits
+    private static final int MEL_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    // ...but only across the cores the interpreter leaves free when overlapping with inference
+    private static final int PREFETCH_MEL_THREADS = Math.max(1, MEL_THREADS - INTERPRETER_THREADS);
+    
+    // Audio longer than one window is transcribed as 30 s windows overlapping by 3 s
+    static final int WINDOW_SAMPLES = WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE;
+    static final int WINDOW_STRIDE = WINDOW_SAMPLES - 3 * WhisperUtil.WHISPER_SAMPLE_RATE;
+    
+    // The warm-up inference runs on one second of silence
+    private static final int WARM_UP_SAMPLES = WhisperUtil.WHISPER_SAMPLE_RATE;
+    
+    // Defaults for a single engine; WhisperEnginePool divides the cores between its engines
+    private int interpreterThreads = INTERPRETER_THREADS;
+    private int melThreads = MEL_THREADS;
+    private int prefetchMelThreads = PREFETCH_MEL_THREADS;
+    private boolean useXnnpack = true;
+    
     private Interpreter interpreter;
+    // Set instead of interpreter when the model comes as separate encoder and decoder graphs
+    private SplitWhisperModel splitModel;
     private WhisperUtil whisperUtil;
     private boolean isInitialized = false;
+    // Mel stream of the last finished recording, reused by the next one
+    private final AtomicReference<StreamingMelSpectrogram> spareStream = new AtomicReference<>();
+    // Judges the stream from the mel frames computed while recording
+    private final SpeechDetector speechDetector = new SpeechDetector(WhisperUtil.WHISPER_N_MEL);
+    
+    // transcribeFile() and transcribeSource() stream the audio through their own mel builder, in
+    // chunks of this size
+    private static final int FILE_CHUNK = 4096;
+    private StreamingMelSpectrogram fileMel;
+    private float[] fileChunk;
+    
+    // Long-form state: the mel of window N + 1 is computed on melPrefetch into the second input
+    // buffer while the interpreter runs window N
+    private ExecutorService melPrefetch;
+    private ByteBuffer nextInputBuffer;
+    private FloatBuffer nextInputFloats;
+    private float[] windowSamples;
+    private int[] windowTokens;
+    private final TokenStitcher stitcher = new TokenStitcher();
+    
+    // Model input/output buffers, allocated once per interpreter; the mel engine writes
+    // straight into inputFloats
+    private ByteBuffer inputBuffer;
+    private FloatBuffer inputFloats;
+    private ByteBuffer outputBuffer;
+    private int outputSize;
+    
+    // Reused per call so steady-state transcription does not allocate
+    private Object[] inputs;
+    private ByteBuffer lastInput;
+    private final Map<Integer, Object> outputs = new HashMap<>();
+    private int[] tokens;
+    private final StringBuilder text = new StringBuilder();
+    
+    // Stage timings in nanoseconds: initialize() and the most recent transcription
+    private long loadNanos;
+    private long melNanos;
+    private long invokeNanos;
+    private long decodeNanos;
+    // One-off cost of the warm-up inference, kept out of the stage timings above
+    private long warmUpNanos;
+    private boolean warmedUp = false;
     
     private Context context;
     
@@ -42,23 +114,32 @@ public class WhisperTensorflowLite implements WhisperEngine {
     
     @Override
     public boolean initialize(String modelPath, String vocabPath, boolean multilingual) throws IOException {
+        MappedByteBuffer modelBuffer;
+        try {
+            // Load TensorFlow Lite model
+            modelBuffer = loadModelFile(modelPath);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load Whisper model " + modelPath, e);
+            return false;
+        }
+        return initialize(modelBuffer, vocabPath, multilingual);
+    }
+    
+    // Initialises with an already mapped model; the buffer is only read, so several engines
+    // can share one mapping
+    boolean initialize(MappedByteBuffer modelBuffer, String vocabPath, boolean multilingual) {
+        long start = System.nanoTime();
         try {
-            // Load vocabulary and filters
-            if (!whisperUtil.loadFiltersAndVocab(multilingual, vocabPath)) {
+            // Load vocabulary and filters; the parsed form is cached next to the vocab file
+            if (!whisperUtil.loadFiltersAndVocab(multilingual, vocabPath, vocabPath + ".cache")) {
                 Log.e(TAG, "Failed to load vocabulary and filters");
                 return false;
             }
             
-            // Load TensorFlow Lite model
-            MappedByteBuffer modelBuffer = loadModelFile(modelPath);
-            
-            // Configure interpreter options
-            Interpreter.Options options = new Interpreter.Options();
-            options.setNumThreads(4);
-            Log.d(TAG, "Using CPU for inference");
-            
-            interpreter = new Interpreter(modelBuffer, options);
+            interpreter = new Interpreter(modelBuffer, createOptions());
+            allocateTensorBuffers();
             isInitialized = true;
+            loadNanos = System.nanoTime() - start;
             
             Log.d(TAG, "Whisper model initialized successfully");
             return true;
@@ -70,113 +151,572 @@ public class WhisperTensorflowLite implements WhisperEngine {
     }
     
     @Override
-    public void deinitialize() {
+    public boolean initializeSplit(String encoderPath, String decoderPath, String vocabPath,
+                                   boolean multilingual) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (!whisperUtil.loadFiltersAndVocab(multilingual, vocabPath, vocabPath + ".cache")) {
+                Log.e(TAG, "Failed to load vocabulary and filters");
+                return false;
+            }
+            
+            splitModel = new SplitWhisperModel(loadModelFile(encoderPath), loadModelFile(decoderPath),
+                    createOptions(), multilingual);
+            allocateTensorBuffers();
+            isInitialized = true;
+            loadNanos = System.nanoTime() - start;
+            
+            Log.d(TAG, "Split Whisper model initialized successfully");
+            return true;
+            
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to initialize split Whisper model", e);
+            splitModel = null;
+            return false;
+        }
+    }
+    
+    private Interpreter.Options createOptions() {
+        Interpreter.Options options = new Interpreter.Options();
+        options.setNumThreads(interpreterThreads);
+        options.setUseXNNPACK(useXnnpack);
+        Log.d(TAG, "Using CPU for inference: " + interpreterThreads + " threads, XNNPACK "
+                + (useXnnpack ? "on" : "off"));
+        return options;
+    }
+    
+    // Runs warmUp() on a background thread, so it overlaps with the user speaking; a
+    // transcription requested before it is done waits for it
+    public void startWarmUp() {
+        startWarmUp(null);
+    }
+    
+    // As startWarmUp(), then runs next on the same thread once the warm-up is done
+    public void startWarmUp(Runnable next) {
+        if (!isInitialized) {
+            return;
+        }
+        new Thread(() -> {
+            warmUp();
+            if (next != null) {
+                next.run();
+            }
+        }, "whisper-warm-up").start();
+    }
+    
+    // One inference on silence, so the first real query does not pay for tensor allocation,
+    // kernel preparation and cold caches. Does nothing if a transcription already ran.
+    public synchronized void warmUp() {
+        if (!isInitialized || warmedUp) {
+            return;
+        }
+        
+        long start = System.nanoTime();
+        try {
+            whisperUtil.getMelSpectrogram(new float[WARM_UP_SAMPLES], WARM_UP_SAMPLES, inputFloats, melThreads);
+            int tokenCount = invokeModel(inputBuffer);
+            text.setLength(0);
+            whisperUtil.appendText(tokens, tokenCount, text);
+        } catch (Exception e) {
+            Log.w(TAG, "Warm-up inference failed", e);
+        }
+        warmUpNanos = System.nanoTime() - start;
+        melNanos = 0;
+        invokeNanos = 0;
+        decodeNanos = 0;
+        Log.d(TAG, "Warm-up inference took " + warmUpNanos / 1000000 + " ms");
+    }
+    
+    // Interpreter setup, e.g. as found by WhisperCalibrator; call before initialize()
+    public void setInterpreterOptions(int threads, boolean useXnnpack) {
+        this.interpreterThreads = Math.max(1, threads);
+        this.prefetchMelThreads = Math.max(1, MEL_THREADS - interpreterThreads);
+        this.useXnnpack = useXnnpack;
+    }
+    
+    // Caps the threads used by the interpreter and the mel engine; call before initialize()
+    void setThreadBudget(int threads) {
+        interpreterThreads = Math.max(1, threads);
+        melThreads = Math.max(1, threads);
+        prefetchMelThreads = 1;
+    }
+    
+    @Override
+    public synchronized void deinitialize() {
         if (interpreter != null) {
             interpreter.close();
             interpreter = null;
         }
+        if (splitModel != null) {
+            splitModel.close();
+            splitModel = null;
+        }
+        spareStream.set(null);
+        fileMel = null;
+        fileChunk = null;
+        if (melPrefetch != null) {
+            melPrefetch.shutdown();
+            melPrefetch = null;
+        }
+        nextInputBuffer = null;
+        nextInputFloats = null;
+        lastInput = null;
+        windowSamples = null;
+        windowTokens = null;
+        inputs = null;
+        outputs.clear();
+        tokens = null;
+        inputBuffer = null;
+        inputFloats = null;
+        outputBuffer = null;
+        whisperUtil.release();
+        warmedUp = false;
         isInitialized = false;
         Log.d(TAG, "Whisper model deinitialized");
     }
     
     @Override
-    public String transcribeFile(String wavePath) {
-        // This would require WAV file reading implementation
-        // For now, return empty string
-        Log.w(TAG, "transcribeFile not implemented yet");
-        return "";
+    public synchronized String transcribeFile(String wavePath) {
+        if (!isInitialized) {
+            Log.e(TAG, "Model not initialized");
+            return "";
+        }
+        
+        try {
+            WavReader reader = WavReader.open(wavePath);
+            if (reader.getSampleRate() != WhisperUtil.WHISPER_SAMPLE_RATE) {
+                Log.e(TAG, "Unsupported sample rate " + reader.getSampleRate() + " in " + wavePath);
+                return "";
+            }
+            Log.d(TAG, "Transcribing " + wavePath + ": " + reader.getFrameCount() + " frames, "
+                    + reader.getChannels() + " channel(s), " + (reader.isFloat() ? "float" : "pcm16"));
+            
+            return transcribe(reader);
+            
+        } catch (Exception e) {
+            Log.e(TAG, "Error transcribing " + wavePath, e);
+            return "";
+        }
     }
     
     @Override
-    public String transcribeBuffer(float[] samples) {
+    public synchronized String transcribeSource(SampleSource source) {
         if (!isInitialized) {
             Log.e(TAG, "Model not initialized");
             return "";
         }
         
         try {
-            // Ensure we have exactly 30 seconds of audio (480000 samples at 16kHz)
-            int targetSamples = WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE;
-            float[] processedSamples = new float[targetSamples];
-            
-            if (samples.length >= targetSamples) {
-                // Take the first 30 seconds
-                System.arraycopy(samples, 0, processedSamples, 0, targetSamples);
-            } else {
-                // Pad with zeros if shorter than 30 seconds
-                System.arraycopy(samples, 0, processedSamples, 0, samples.length);
-                Arrays.fill(processedSamples, samples.length, targetSamples, 0.0f);
+            return transcribe(source);
+        } catch (Exception e) {
+            Log.e(TAG, "Error during transcription", e);
+            return "";
+        }
+    }
+    
+    // Samples go from the source into the mel builder chunk by chunk, the same path live audio
+    // takes; longer sources are read window by window
+    private String transcribe(SampleSource source) throws Exception {
+        int nFrames = source.getFrameCount();
+        if (nFrames > WINDOW_SAMPLES) {
+            return transcribeLong((start, dest, max) -> {
+                source.seek(start);
+                int total = 0;
+                int read;
+                while (total < max && (read = source.read(dest, total, max - total)) > 0) {
+                    total += read;
+                }
+                return total;
+            }, nFrames);
+        }
+        
+        if (fileMel == null) {
+            fileMel = whisperUtil.createStreamingMel();
+            fileChunk = new float[FILE_CHUNK];
+        }
+        fileMel.reset();
+        
+        long start = System.nanoTime();
+        source.seek(0);
+        int read;
+        while ((read = source.read(fileChunk, 0, FILE_CHUNK)) > 0) {
+            fileMel.append(fileChunk, 0, read);
+        }
+        fileMel.finish(inputFloats, melThreads);
+        melNanos = System.nanoTime() - start;
+        return runInference();
+    }
+    
+    @Override
+    public synchronized String transcribeBuffer(float[] samples) {
+        if (!isInitialized) {
+            Log.e(TAG, "Model not initialized");
+            return "";
+        }
+        
+        try {
+            if (samples.length > WINDOW_SAMPLES) {
+                return transcribeLong((start, dest, max) -> {
+                    int count = Math.min(max, samples.length - start);
+                    System.arraycopy(samples, start, dest, 0, count);
+                    return count;
+                }, samples.length);
             }
             
-            // Convert audio to mel spectrogram
-            float[] melSpectrogram = whisperUtil.getMelSpectrogram(processedSamples, targetSamples, 1);
+            // The mel engine zero pads to 30 seconds (480000 samples at 16kHz) itself,
+            // writing directly into the model input
+            long start = System.nanoTime();
+            whisperUtil.getMelSpectrogram(samples, samples.length, inputFloats, melThreads);
+            melNanos = System.nanoTime() - start;
+            return runInference();
             
-            // Prepare input tensor (mel spectrogram)
-            ByteBuffer inputBuffer = ByteBuffer.allocateDirect(4 * WhisperUtil.WHISPER_N_MEL * WhisperUtil.WHISPER_MEL_LEN);
-            inputBuffer.order(ByteOrder.nativeOrder());
+        } catch (Exception e) {
+            Log.e(TAG, "Error during transcription", e);
+            return "";
+        }
+    }
+    
+    @Override
+    public StreamingMelSpectrogram beginStreaming() {
+        if (!isInitialized) {
+            Log.e(TAG, "Model not initialized");
+            return null;
+        }
+        StreamingMelSpectrogram stream = spareStream.getAndSet(null);
+        if (stream == null) {
+            stream = whisperUtil.createStreamingMel();
+        }
+        stream.reset();
+        return stream;
+    }
+    
+    @Override
+    public synchronized String finishStreaming(StreamingMelSpectrogram stream) {
+        if (!isInitialized || stream == null) {
+            Log.e(TAG, "Streaming not started");
+            return "";
+        }
+        
+        try {
+            Log.d(TAG, "Finishing mel stream: " + stream.getSampleCount() + " samples, "
+                    + stream.getReadyFrames() + " frames precomputed");
+            // Only the tail frames and the normalisation are left at this point
+            long start = System.nanoTime();
+            stream.finish(inputFloats, melThreads);
+            melNanos = System.nanoTime() - start;
+            return runInference();
             
-            // Fill input buffer with mel spectrogram data
-            for (int i = 0; i < Math.min(melSpectrogram.length, WhisperUtil.WHISPER_N_MEL * WhisperUtil.WHISPER_MEL_LEN); i++) {
-                inputBuffer.putFloat(melSpectrogram[i]);
+        } catch (Exception e) {
+            Log.e(TAG, "Error during transcription", e);
+            return "";
+        }
+    }
+    
+    @Override
+    public synchronized boolean streamHasSpeech(StreamingMelSpectrogram stream) {
+        if (!isInitialized || stream == null) {
+            return false;
+        }
+        
+        long start = System.nanoTime();
+        boolean speech;
+        synchronized (stream) {
+            speech = speechDetector.hasSpeech(stream.getRawFrames(), WhisperUtil.WHISPER_MEL_LEN,
+                    stream.getReadyFrames());
+        }
+        Log.d(TAG, "Speech check: " + (speech ? "speech" : "no speech") + ", "
+                + speechDetector.getVoicedFrames() + " voiced frames, noise floor "
+                + speechDetector.getNoiseFloorDb() + " dB, " + (System.nanoTime() - start) / 1000 + " us");
+        return speech;
+    }
+    
+    @Override
+    public synchronized void endStreaming(StreamingMelSpectrogram stream) {
+        // Not kept once the engine is shut down; its mel workers went with it
+        if (isInitialized && stream != null) {
+            spareStream.set(stream);
+        }
+    }
+    
+    // Time spent in initialize(): vocab/filters, model mapping, interpreter and buffers
+    public long getLoadNanos() {
+        return loadNanos;
+    }
+    
+    // Time spent in warmUp(), 0 if it has not run
+    public synchronized long getWarmUpNanos() {
+        return warmUpNanos;
+    }
+    
+    // Stages of the most recent transcription; for transcribeFile() the mel stage includes reading
+    public synchronized long getMelNanos() {
+        return melNanos;
+    }
+    
+    public synchronized long getInvokeNanos() {
+        return invokeNanos;
+    }
+    
+    public synchronized long getDecodeNanos() {
+        return decodeNanos;
+    }
+    
+    // Model input of the most recent inference (the normalised mel spectrogram; for long-form
+    // transcription that of the last window)
+    public synchronized void copyMelInput(float[] dest) {
+        ByteBuffer bytes = lastInput.duplicate();
+        bytes.clear();
+        FloatBuffer view = bytes.order(ByteOrder.nativeOrder()).asFloatBuffer();
+        view.get(dest, 0, Math.min(dest.length, view.remaining()));
+    }
+    
+    private void allocateTensorBuffers() {
+        int inputBytes = splitModel != null ? splitModel.getInputBytes() : interpreter.getInputTensor(0).numBytes();
+        int melBytes = 4 * WhisperUtil.WHISPER_N_MEL * WhisperUtil.WHISPER_MEL_LEN;
+        if (inputBytes != melBytes) {
+            Log.w(TAG, "Unexpected input tensor size: " + inputBytes + " bytes, expected " + melBytes);
+        }
+        inputBuffer = ByteBuffer.allocateDirect(inputBytes);
+        inputBuffer.order(ByteOrder.nativeOrder());
+        inputFloats = inputBuffer.asFloatBuffer();
+        
+        if (splitModel != null) {
+            // Tokens come out of the decoding loop one by one, at most MAX_TOKENS per window
+            outputSize = SplitWhisperModel.MAX_TOKENS;
+            tokens = new int[outputSize];
+            return;
+        }
+        
+        // Get actual output tensor shape from the model
+        int[] outputShape = interpreter.getOutputTensor(0).shape();
+        outputSize = 1;
+        for (int dim : outputShape) {
+            outputSize *= dim;
+        }
+        
+        Log.d(TAG, "Output tensor shape: " + Arrays.toString(outputShape));
+        Log.d(TAG, "Output tensor size: " + outputSize);
+        
+        outputBuffer = ByteBuffer.allocateDirect(4 * outputSize);
+        outputBuffer.order(ByteOrder.nativeOrder());
+        
+        inputs = new Object[] {inputBuffer};
+        outputs.clear();
+        outputs.put(0, outputBuffer);
+        tokens = new int[outputSize];
+    }
+    
+    // Runs the model on the mel spectrogram already written to inputBuffer
+    private String runInference() {
+        int tokenCount = invokeModel(inputBuffer);
+        long invoked = System.nanoTime();
+        
+        // Convert tokens to text
+        text.setLength(0);
+        whisperUtil.appendText(tokens, tokenCount, text);
+        
+        String transcription = text.toString().trim();
+        decodeNanos = System.nanoTime() - invoked;
+        Log.d(TAG, "Transcription result: " + transcription);
+        return transcription;
+    }
+    
+    // Runs the model on input and collects the output tokens up to EOT into tokens[]
+    private int invokeModel(ByteBuffer input) {
+        if (splitModel != null) {
+            lastInput = input;
+            long start = System.nanoTime();
+            int tokenCount = splitModel.decode(input, whisperUtil, tokens);
+            invokeNanos = System.nanoTime() - start;
+            warmedUp = true;
+            Log.d(TAG, "Encoder " + splitModel.getEncoderNanos() / 1000000 + " ms, decoder "
+                    + splitModel.getSteps() + " steps in " + splitModel.getDecoderNanos() / 1000000 + " ms");
+            return tokenCount;
+        }
+        
+        inputs[0] = input;
+        lastInput = input;
+        input.rewind();
+        outputBuffer.rewind();
+        
+        // Run inference
+        long start = System.nanoTime();
+        interpreter.runForMultipleInputsOutputs(inputs, outputs);
+        invokeNanos = System.nanoTime() - start;
+        warmedUp = true;
+        
+        // Process output tokens
+        outputBuffer.rewind();
+        int tokenCount = 0;
+        
+        for (int i = 0; i < outputSize; i++) {
+            int token = outputBuffer.getInt();
+            if (token == whisperUtil.getTokenEOT()) {
+                break;
             }
-            
-            // Get actual output tensor shape from the model
-            int[] outputShape = interpreter.getOutputTensor(0).shape();
-            int outputSize = 1;
-            for (int dim : outputShape) {
-                outputSize *= dim;
+            tokens[tokenCount++] = token;
+        }
+        return tokenCount;
+    }
+    
+    // Source of samples for long-form transcription
+    private interface WindowSource {
+        // Copies up to max samples starting at sample start into dest; returns the number copied
+        int read(int start, float[] dest, int max);
+    }
+    
+    // Transcribes nSamples of audio window by window and stitches the token streams. The mel of
+    // the next window is prepared on another core while the current one is being inferred, so
+    // apart from the first window the mel cost is hidden behind the interpreter.
+    private String transcribeLong(WindowSource source, int nSamples) throws Exception {
+        int nWindows = 1 + (nSamples - WINDOW_SAMPLES + WINDOW_STRIDE - 1) / WINDOW_STRIDE;
+        Log.d(TAG, "Long-form transcription: " + nSamples + " samples in " + nWindows + " windows");
+        allocateLongFormBuffers();
+        startMelPrefetch();
+        
+        long start = System.nanoTime();
+        long melTotal = prepareWindow(source, 0, nSamples, inputFloats, melThreads);
+        long invokeTotal = 0;
+        stitcher.reset();
+        
+        for (int w = 0; w < nWindows; w++) {
+            ByteBuffer current = (w & 1) == 0 ? inputBuffer : nextInputBuffer;
+            Future<Long> next = null;
+            if (w + 1 < nWindows) {
+                int nextWindow = w + 1;
+                FloatBuffer nextDest = (nextWindow & 1) == 0 ? inputFloats : nextInputFloats;
+                next = melPrefetch.submit(() ->
+                        prepareWindow(source, nextWindow, nSamples, nextDest, prefetchMelThreads));
             }
             
-            Log.d(TAG, "Output tensor shape: " + Arrays.toString(outputShape));
-            Log.d(TAG, "Output tensor size: " + outputSize);
-            
-            // Prepare output tensor with correct size
-            ByteBuffer outputBuffer = ByteBuffer.allocateDirect(4 * outputSize);
-            outputBuffer.order(ByteOrder.nativeOrder());
-            
-            // Run inference
-            Object[] inputs = {inputBuffer};
-            Map<Integer, Object> outputs = new HashMap<>();
-            outputs.put(0, outputBuffer);
-            
-            interpreter.runForMultipleInputsOutputs(inputs, outputs);
-            
-            // Process output tokens
-            outputBuffer.rewind();
-            List<Integer> tokens = new ArrayList<>();
-            
-            for (int i = 0; i < outputSize; i++) {
-                int token = outputBuffer.getInt();
-                if (token == whisperUtil.getTokenEOT()) {
-                    break;
-                }
-                tokens.add(token);
+            int count;
+            try {
+                count = invokeModel(current);
+                invokeTotal += invokeNanos;
+            } catch (RuntimeException | Error e) {
+                // Never leave the prefetch running past this call; it shares the mel workspace
+                awaitPrefetch(next, e);
+                throw e;
             }
-            
-            // Convert tokens to text
-            StringBuilder result = new StringBuilder();
-            for (int token : tokens) {
-                String word = whisperUtil.getWordFromToken(token);
-                if (word != null && !word.startsWith("[_")) {
-                    result.append(word);
-                }
+            if (next != null) {
+                melTotal += next.get();
             }
             
-            String transcription = result.toString().trim();
-            Log.d(TAG, "Transcription result: " + transcription);
-            return transcription;
-            
-        } catch (Exception e) {
-            Log.e(TAG, "Error during transcription", e);
-            return "";
+            int kept = keepTextTokens(count);
+            int replaced = stitcher.append(windowTokens, kept);
+            Log.d(TAG, "Window " + w + ": " + kept + " tokens, " + replaced + " replaced at the seam");
         }
+        
+        long invoked = System.nanoTime();
+        text.setLength(0);
+        whisperUtil.appendText(stitcher.getTokens(), stitcher.size(), text);
+        String transcription = text.toString().trim();
+        
+        // Stage totals over all windows; the mel time overlaps with invoke except for window 0
+        melNanos = melTotal;
+        invokeNanos = invokeTotal;
+        decodeNanos = System.nanoTime() - invoked;
+        Log.d(TAG, "Long-form transcription took " + (invoked - start) / 1000000 + " ms, invoke "
+                + invokeTotal / 1000000 + " ms: " + transcription);
+        return transcription;
     }
     
-    private MappedByteBuffer loadModelFile(String modelPath) throws IOException {
-        FileInputStream inputStream = new FileInputStream(modelPath);
-        FileChannel fileChannel = inputStream.getChannel();
-        long startOffset = 0L;
-        long declaredLength = fileChannel.size();
-        return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
+    // Waits for the prefetch of the next window after the current one failed. A failure of the
+    // prefetch itself is attached to that one rather than replacing it.
+    private static void awaitPrefetch(Future<Long> prefetch, Throwable failure) {
+        if (prefetch == null) {
+            return;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                prefetch.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                failure.addSuppressed(e.getCause() != null ? e.getCause() : e);
+                break;
+            } catch (CancellationException e) {
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    // Copies the text tokens of tokens[0, count) to windowTokens; special tokens (SOT,
+    // no-timestamps, ...) would get in the way of stitching
+    private int keepTextTokens(int count) {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (tokens[i] < whisperUtil.getTokenEOT()) {
+                windowTokens[kept++] = tokens[i];
+            }
+        }
+        return kept;
+    }
+    
+    // Text tokens of samples[start, start + count) (at most one window), for callers that
+    // stitch windows themselves
+    synchronized int[] transcribeWindowTokens(float[] samples, int start, int count) {
+        allocateLongFormBuffers();
+        count = Math.min(count, WINDOW_SAMPLES);
+        System.arraycopy(samples, start, windowSamples, 0, count);
+        
+        long melStart = System.nanoTime();
+        whisperUtil.getMelSpectrogram(windowSamples, count, inputFloats, melThreads);
+        melNanos = System.nanoTime() - melStart;
+        
+        int kept = keepTextTokens(invokeModel(inputBuffer));
+        return Arrays.copyOf(windowTokens, kept);
+    }
+    
+    synchronized String decodeTokens(int[] textTokens, int count) {
+        text.setLength(0);
+        whisperUtil.appendText(textTokens, count, text);
+        return text.toString().trim();
+    }
+    
+    // Writes the mel of the given window into dest; returns the time it took
+    private long prepareWindow(WindowSource source, int window, int nSamples, FloatBuffer dest, int nThreads) {
+        long start = System.nanoTime();
+        int offset = window * WINDOW_STRIDE;
+        int count = source.read(offset, windowSamples, Math.min(WINDOW_SAMPLES, nSamples - offset));
+        whisperUtil.getMelSpectrogram(windowSamples, count, dest, nThreads);
+        return System.nanoTime() - start;
+    }
+    
+    private void allocateLongFormBuffers() {
+        if (windowSamples == null) {
+            windowSamples = new float[WINDOW_SAMPLES];
+            windowTokens = new int[outputSize];
+        }
+    }
+    
+    // Second input buffer and the thread filling it, only needed by transcribeLong()
+    private void startMelPrefetch() {
+        if (nextInputBuffer == null) {
+            nextInputBuffer = ByteBuffer.allocateDirect(inputBuffer.capacity());
+            nextInputBuffer.order(ByteOrder.nativeOrder());
+            nextInputFloats = nextInputBuffer.asFloatBuffer();
+        }
+        if (melPrefetch == null) {
+            melPrefetch = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "mel-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+    
+    static MappedByteBuffer loadModelFile(String modelPath) throws IOException {
+        try (FileInputStream inputStream = new FileInputStream(modelPath)) {
+            FileChannel fileChannel = inputStream.getChannel();
+            long startOffset = 0L;
+            long declaredLength = fileChannel.size();
+            return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
+        }
     }
 }
\ No newline at end of file
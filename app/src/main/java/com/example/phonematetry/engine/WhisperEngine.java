@@ -1,11 +1,28 @@
 package com.example.phonematetry.engine;
 
+import com.example.phonematetry.utils.SampleSource;
+import com.example.phonematetry.utils.StreamingMelSpectrogram;
+
 import java.io.IOException;
 
 public interface WhisperEngine {
     boolean isInitialized();
     boolean initialize(String modelPath, String vocabPath, boolean multilingual) throws IOException;
+    // Same, for a model exported as separate encoder and decoder graphs
+    boolean initializeSplit(String encoderPath, String decoderPath, String vocabPath, boolean multilingual) throws IOException;
     void deinitialize();
     String transcribeFile(String wavePath);
     String transcribeBuffer(float[] samples);
+    // 16 kHz audio of any length, read in chunks (e.g. a long recording partly on disk)
+    String transcribeSource(SampleSource source);
+
+    // Streaming input: the mel spectrogram is built while audio is still being captured. Each
+    // recording gets its own stream to append() its audio to, so a new recording can start while
+    // the last one is still being transcribed; null if the engine is not initialized
+    StreamingMelSpectrogram beginStreaming();
+    String finishStreaming(StreamingMelSpectrogram stream);
+    // Whether the audio fed so far contains speech at all; cheap, meant to run before finishStreaming()
+    boolean streamHasSpeech(StreamingMelSpectrogram stream);
+    // Hands the stream back for a later recording; it must not be used afterwards
+    void endStreaming(StreamingMelSpectrogram stream);
 }
\ No newline at end of file
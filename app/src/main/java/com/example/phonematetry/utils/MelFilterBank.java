@@ -0,0 +1,100 @@
+package com.example.phonematetry.utils;
+
+// Triangular mel filter bank in compact form.
+//
+// Each band only has non-zero weights on a short run of FFT bins (1 bin for the lowest bands,
+// ~14 for the highest), so instead of the dense nMel x nFft matrix every band stores its first
+// and last non-zero bin plus the weights in between, packed into one array. The dense matrix
+// is only read while building the bank and is not kept.
+public class MelFilterBank {
+    private final int nMel;
+    private final int nFft;
+
+    // band j covers bins [bandStart[j], bandEnd[j]) with weights[weightOffset[j] + (k - bandStart[j])]
+    private final int[] bandStart;
+    private final int[] bandEnd;
+    private final int[] weightOffset;
+    private final float[] weights;
+
+    public MelFilterBank(float[] dense, int nMel, int nFft) {
+        this.nMel = nMel;
+        this.nFft = nFft;
+
+        bandStart = new int[nMel];
+        bandEnd = new int[nMel];
+        weightOffset = new int[nMel];
+
+        int total = 0;
+        for (int j = 0; j < nMel; j++) {
+            int start = 0;
+            while (start < nFft && dense[j * nFft + start] == 0.0f) {
+                start++;
+            }
+            int end = nFft;
+            while (end > start && dense[j * nFft + end - 1] == 0.0f) {
+                end--;
+            }
+            bandStart[j] = start;
+            bandEnd[j] = end;
+            weightOffset[j] = total;
+            total += end - start;
+        }
+
+        weights = new float[total];
+        for (int j = 0; j < nMel; j++) {
+            System.arraycopy(dense, j * nFft + bandStart[j], weights, weightOffset[j], bandEnd[j] - bandStart[j]);
+        }
+    }
+
+    // Restores a bank whose compact form was saved by VocabCache
+    MelFilterBank(int nMel, int nFft, int[] bandStart, int[] bandEnd, int[] weightOffset,
+                  float[] weights) {
+        this.nMel = nMel;
+        this.nFft = nFft;
+        this.bandStart = bandStart;
+        this.bandEnd = bandEnd;
+        this.weightOffset = weightOffset;
+        this.weights = weights;
+    }
+
+    int[] getBandStart() {
+        return bandStart;
+    }
+
+    int[] getBandEnd() {
+        return bandEnd;
+    }
+
+    int[] getWeightOffset() {
+        return weightOffset;
+    }
+
+    float[] getWeights() {
+        return weights;
+    }
+
+    public int getMelCount() {
+        return nMel;
+    }
+
+    public int getBinCount() {
+        return nFft;
+    }
+
+    // Number of stored weights, versus nMel * nFft for the dense matrix
+    public int getWeightCount() {
+        return weights.length;
+    }
+
+    // Mel energy of one band, iterating only over its non-zero weights
+    public double bandEnergy(int band, float[] power) {
+        int start = bandStart[band];
+        int end = bandEnd[band];
+        int w = weightOffset[band] - start;
+        double sum = 0.0;
+        for (int k = start; k < end; k++) {
+            sum += power[k] * weights[w + k];
+        }
+        return sum;
+    }
+}
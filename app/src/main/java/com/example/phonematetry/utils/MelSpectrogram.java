@@ -0,0 +1,394 @@
+package com.example.phonematetry.utils;
+
+import static java.lang.Math.log10;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Log-mel spectrogram engine used by WhisperUtil.
+//
+// Frames are handed out in small blocks through a shared counter, so the work is spread over
+// the calling thread plus up to nThreads - 1 long-lived pool threads. Every worker owns its FFT
+// scratch and tracks the maximum of the frames it produced; the maxima are merged before the
+// clamp/normalise pass, which is split the same way. Each output value is computed by exactly
+// the same code whichever worker handles it, so the result does not depend on nThreads.
+public class MelSpectrogram {
+    private static final int FRAMES_PER_BLOCK = 32;
+    private static final int VALUES_PER_BLOCK = 16384;
+
+    private static final int PHASE_FRAMES = 0;
+    private static final int PHASE_NORMALIZE = 1;
+
+    private final int nMel;
+    private final MelFilterBank filters;
+
+    private final int fftSize = WhisperUtil.WHISPER_N_FFT;
+    private final int fftStep = WhisperUtil.WHISPER_HOP_LENGTH;
+    private final RealFftPlan fftPlan = new RealFftPlan(fftSize);
+    private final float[] hann = new float[fftSize];
+
+    // log-mel of an all-zero window, computed on first use
+    private float[] silenceMel;
+    private double silenceMax;
+
+    private final AtomicInteger nextBlock = new AtomicInteger();
+    private final AtomicInteger remaining = new AtomicInteger();
+    private volatile FrameWorker[] workers = new FrameWorker[0];
+    private WorkerThread[] threads = new WorkerThread[0];
+    private int generation = 0;
+    private volatile Thread caller;
+    private volatile Throwable failure;
+
+    // current job, published to the pool threads by the volatile write to WorkerThread.assigned
+    private float[] samples;
+    private int nSamples;
+    private int firstFrame;
+    private int lastFrame;
+    private int nLen;
+    private float[] out;
+    private FloatBuffer dest;
+    private int total;
+    private float floor;
+
+    public MelSpectrogram(MelFilterBank filters) {
+        if (filters.getBinCount() > fftPlan.binCount()) {
+            throw new IllegalArgumentException("Filter bank has " + filters.getBinCount()
+                    + " bins, FFT produces " + fftPlan.binCount());
+        }
+        this.filters = filters;
+        this.nMel = filters.getMelCount();
+        for (int i = 0; i < fftSize; i++) {
+            hann[i] = (float) (0.5 * (1.0 - Math.cos(2.0 * Math.PI * i / fftSize)));
+        }
+    }
+
+    // Writes the normalised log-mel spectrogram of samples[0, nSamples) into out, laid out
+    // as nMel rows of nLen frames.
+    public synchronized void compute(float[] samples, int nSamples, int nLen, float[] out, int nThreads) {
+        double mmax = computeFrames(samples, nSamples, 0, nLen, nLen, out, nThreads);
+        normalize(out, nMel * nLen, mmax, nThreads);
+    }
+
+    // Same as above, but the normalised values go straight into dest (e.g. a view of a model
+    // input buffer) and work only holds the raw log-mel energies
+    public synchronized void compute(float[] samples, int nSamples, int nLen, float[] work,
+                                     FloatBuffer dest, int nThreads) {
+        double mmax = computeFrames(samples, nSamples, 0, nLen, nLen, work, nThreads);
+        normalize(work, nMel * nLen, mmax, dest, nThreads);
+    }
+
+    // Writes the raw log10 mel energies of frames [from, to) into out and returns their maximum
+    // (-1e20 for an empty range). Samples at or past nSamples are treated as zero padding.
+    public synchronized double computeFrames(float[] samples, int nSamples, int from, int to,
+                                             int nLen, float[] out, int nThreads) {
+        if (from >= to) {
+            return -1e20;
+        }
+
+        // Frames starting after the last non-zero sample only see padding and all have the
+        // same value, so they are filled from one precomputed silence frame. Frames that
+        // overlap the end of the audio are still computed.
+        int active = Math.min(nSamples, (to - 1) * fftStep + fftSize);
+        int lower = from * fftStep;
+        while (active > lower && samples[active - 1] == 0.0f) {
+            active--;
+        }
+        int silentFrom = Math.max(from, Math.min(to, (active + fftStep - 1) / fftStep));
+
+        double mmax = computeAudioFrames(samples, nSamples, from, silentFrom, nLen, out, nThreads);
+        if (silentFrom < to) {
+            double silenceMax = fillSilence(silentFrom, to, nLen, out);
+            if (silenceMax > mmax) {
+                mmax = silenceMax;
+            }
+        }
+        return mmax;
+    }
+
+    private double fillSilence(int from, int to, int nLen, float[] out) {
+        if (silenceMel == null) {
+            float[] frame = new float[nMel];
+            silenceMax = computeAudioFrames(new float[fftSize], 0, 0, 1, 1, frame, 1);
+            silenceMel = frame;
+        }
+        for (int j = 0; j < nMel; j++) {
+            Arrays.fill(out, j * nLen + from, j * nLen + to, silenceMel[j]);
+        }
+        return silenceMax;
+    }
+
+    private double computeAudioFrames(float[] samples, int nSamples, int from, int to,
+                                      int nLen, float[] out, int nThreads) {
+        if (from >= to) {
+            return -1e20;
+        }
+        int nWorkers = Math.max(1, Math.min(nThreads, (to - from + FRAMES_PER_BLOCK - 1) / FRAMES_PER_BLOCK));
+        ensureWorkers(nWorkers);
+
+        this.samples = samples;
+        this.nSamples = nSamples;
+        this.firstFrame = from;
+        this.lastFrame = to;
+        this.nLen = nLen;
+        this.out = out;
+        try {
+            runPhase(PHASE_FRAMES, nWorkers);
+        } finally {
+            this.samples = null;
+            this.out = null;
+        }
+
+        // merge the per-worker maxima
+        double mmax = -1e20;
+        for (int w = 0; w < nWorkers; w++) {
+            if (workers[w].max > mmax) {
+                mmax = workers[w].max;
+            }
+        }
+        return mmax;
+    }
+
+    // Clamps out[0, total) to mmax - 8 and rescales it in place
+    public synchronized void normalize(float[] out, int total, double mmax, int nThreads) {
+        normalize(out, total, mmax, null, nThreads);
+    }
+
+    // Clamps and rescales raw[0, total) into dest[0, total), or in place when dest is null
+    public synchronized void normalize(float[] raw, int total, double mmax, FloatBuffer dest, int nThreads) {
+        if (dest != null && dest.capacity() < total) {
+            throw new IllegalArgumentException("Destination holds " + dest.capacity() + " floats, need " + total);
+        }
+        int nWorkers = Math.max(1, Math.min(nThreads, (total + VALUES_PER_BLOCK - 1) / VALUES_PER_BLOCK));
+        ensureWorkers(nWorkers);
+
+        this.out = raw;
+        this.dest = dest;
+        this.total = total;
+        this.floor = (float) (mmax - 8.0);
+        try {
+            runPhase(PHASE_NORMALIZE, nWorkers);
+        } finally {
+            this.out = null;
+            this.dest = null;
+        }
+    }
+
+    public synchronized void release() {
+        for (WorkerThread thread : threads) {
+            thread.released = true;
+            LockSupport.unpark(thread);
+        }
+        threads = new WorkerThread[0];
+    }
+
+    private void ensureWorkers(int nWorkers) {
+        if (workers.length < nWorkers) {
+            FrameWorker[] grown = new FrameWorker[nWorkers];
+            System.arraycopy(workers, 0, grown, 0, workers.length);
+            for (int w = workers.length; w < nWorkers; w++) {
+                grown[w] = new FrameWorker();
+            }
+            workers = grown;
+        }
+
+        // the calling thread acts as worker 0
+        if (threads.length < nWorkers - 1) {
+            WorkerThread[] grown = new WorkerThread[nWorkers - 1];
+            System.arraycopy(threads, 0, grown, 0, threads.length);
+            for (int t = threads.length; t < grown.length; t++) {
+                grown[t] = new WorkerThread(t + 1);
+                grown[t].start();
+            }
+            threads = grown;
+        }
+    }
+
+    // Runs one phase on nWorkers workers without allocating: each pool thread is handed the
+    // new generation number and unparked, and the last one to finish unparks the caller
+    private void runPhase(int phase, int nWorkers) {
+        nextBlock.set(0);
+        for (int w = 0; w < nWorkers; w++) {
+            workers[w].phase = phase;
+        }
+
+        if (nWorkers > 1) {
+            failure = null;
+            caller = Thread.currentThread();
+            remaining.set(nWorkers - 1);
+            generation++;
+            for (int t = 0; t < nWorkers - 1; t++) {
+                threads[t].assigned = generation;
+                LockSupport.unpark(threads[t]);
+            }
+        }
+
+        // the pool threads read the job fields until they are done, and the caller clears them
+        // as soon as this returns, so wait for the pool even if worker 0 failed
+        try {
+            workers[0].run();
+        } finally {
+            if (nWorkers > 1) {
+                awaitPool();
+            }
+        }
+        if (nWorkers > 1 && failure != null) {
+            throw new IllegalStateException("Mel spectrogram worker failed", failure);
+        }
+    }
+
+    private void awaitPool() {
+        boolean interrupted = false;
+        while (remaining.get() > 0) {
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                interrupted = true;
+            }
+        }
+        caller = null;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class WorkerThread extends Thread {
+        private final int index;
+        private int seenGeneration;
+        volatile int assigned;
+        volatile boolean released;
+
+        WorkerThread(int index) {
+            super("mel-worker-" + index);
+            this.index = index;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!released) {
+                int current = assigned;
+                if (current == seenGeneration) {
+                    LockSupport.park(MelSpectrogram.this);
+                    continue;
+                }
+                seenGeneration = current;
+
+                try {
+                    workers[index].run();
+                } catch (Throwable t) {
+                    failure = t;
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    LockSupport.unpark(caller);
+                }
+            }
+        }
+    }
+
+    private class FrameWorker implements Runnable {
+        final float[] frame = new float[fftSize];
+        final float[] power = new float[fftPlan.binCount()];
+        final float[] work = fftPlan.newWorkBuffer();
+
+        // normalised block and this worker's view of the destination buffer
+        float[] block;
+        FloatBuffer destView;
+        FloatBuffer destSource;
+
+        int phase;
+        double max;
+
+        @Override
+        public void run() {
+            if (phase == PHASE_FRAMES) {
+                max = -1e20;
+                int count = lastFrame - firstFrame;
+                int nBlocks = (count + FRAMES_PER_BLOCK - 1) / FRAMES_PER_BLOCK;
+                for (int b = nextBlock.getAndIncrement(); b < nBlocks; b = nextBlock.getAndIncrement()) {
+                    int start = firstFrame + b * FRAMES_PER_BLOCK;
+                    int end = Math.min(lastFrame, start + FRAMES_PER_BLOCK);
+                    for (int i = start; i < end; i++) {
+                        computeFrame(i);
+                    }
+                }
+            } else {
+                if (dest != null) {
+                    prepareDestination();
+                }
+                int nBlocks = (total + VALUES_PER_BLOCK - 1) / VALUES_PER_BLOCK;
+                for (int b = nextBlock.getAndIncrement(); b < nBlocks; b = nextBlock.getAndIncrement()) {
+                    normalize(b * VALUES_PER_BLOCK, Math.min(total, (b + 1) * VALUES_PER_BLOCK));
+                }
+            }
+        }
+
+        private void computeFrame(int i) {
+            int offset = i * fftStep;
+
+            // apply Hanning window
+            for (int j = 0; j < fftSize; j++) {
+                if (offset + j < nSamples) {
+                    frame[j] = hann[j] * samples[offset + j];
+                } else {
+                    frame[j] = 0.0f;
+                }
+            }
+
+            // FFT -> mag^2, folding the negative frequencies onto the positive ones
+            fftPlan.powerSpectrum(frame, power, work);
+            for (int j = 1; j < fftSize / 2; j++) {
+                power[j] *= 2.0f;
+            }
+
+            // mel spectrogram
+            for (int j = 0; j < nMel; j++) {
+                double sum = filters.bandEnergy(j, power);
+                if (sum < 1e-10) {
+                    sum = 1e-10;
+                }
+                float value = (float) log10(sum);
+                out[j * nLen + i] = value;
+                if (value > max) {
+                    max = value;
+                }
+            }
+        }
+
+        // clamping and normalization
+        private void normalize(int from, int to) {
+            if (dest == null) {
+                for (int i = from; i < to; i++) {
+                    out[i] = normalizeValue(out[i]);
+                }
+                return;
+            }
+
+            for (int i = from; i < to; i++) {
+                block[i - from] = normalizeValue(out[i]);
+            }
+            destView.position(from);
+            destView.put(block, 0, to - from);
+        }
+
+        // done before claiming blocks so the buffers exist after the first call, even for a
+        // worker that did not get any block in it
+        private void prepareDestination() {
+            if (block == null) {
+                block = new float[VALUES_PER_BLOCK];
+            }
+            if (destSource != dest) {
+                destView = dest.duplicate();
+                destView.clear();
+                destSource = dest;
+            }
+        }
+
+        private float normalizeValue(float value) {
+            if (value < floor) {
+                value = floor;
+            }
+            return (value + 4.0f) / 4.0f;
+        }
+    }
+}
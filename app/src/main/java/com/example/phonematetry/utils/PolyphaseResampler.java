@@ -0,0 +1,208 @@
+package com.example.phonematetry.utils;
+
+import java.util.Arrays;
+
+// Streaming sample rate converter for a fixed rational ratio, e.g. 48 kHz or 44.1 kHz
+// microphone audio to Whisper's 16 kHz.
+//
+// Conceptually the input is upsampled by L (zeros in between), lowpass filtered and decimated
+// by M, where L/M is the reduced ratio outRate/inRate. The polyphase form only evaluates the
+// filter at the output samples: output n uses phase (n*M) mod L of the prototype filter, whose
+// taps are stored contiguously per phase, so every output is one dot product of tapsPerPhase
+// input samples. The prototype is a Kaiser-windowed sinc designed once in the constructor for
+// STOPBAND_DB of attenuation: everything below PASSBAND of the lower Nyquist frequency passes,
+// and nothing that would alias into it gets through.
+//
+// Input can come in blocks of any size; the filter history is carried over between calls, so
+// the result does not depend on how the stream is split. process() allocates nothing. One
+// instance per stream, not thread-safe.
+public class PolyphaseResampler {
+    private static final double STOPBAND_DB = 90.0;
+    // Passband edge as a fraction of the lower Nyquist frequency; the stopband starts where
+    // its alias would land on that edge
+    private static final double PASSBAND = 0.9;
+    // Input samples buffered per internal step
+    private static final int CHUNK = 1024;
+
+    private final int inRate;
+    private final int outRate;
+    private final int up;
+    private final int down;
+    private final int tapsPerPhase;
+    // Phase-major prototype taps, each phase in reverse order so that an output is a forward
+    // dot product over the input
+    private final float[] coefficients;
+    // The last tapsPerPhase - 1 input samples followed by the current chunk
+    private final float[] work;
+
+    private int fill;
+    // Index in work of the newest input sample the next output depends on, and its phase
+    private int position;
+    private int phase;
+
+    public PolyphaseResampler(int inRate, int outRate) {
+        if (inRate <= 0 || outRate <= 0) {
+            throw new IllegalArgumentException("Invalid rates " + inRate + " -> " + outRate);
+        }
+        this.inRate = inRate;
+        this.outRate = outRate;
+        int gcd = gcd(inRate, outRate);
+        up = outRate / gcd;
+        down = inRate / gcd;
+
+        // Kaiser design (cycles per sample at the upsampled rate)
+        double nyquist = Math.min(inRate, outRate) / 2.0;
+        double passEdge = PASSBAND * nyquist;
+        double stopEdge = 2 * nyquist - passEdge;
+        double upsampledRate = (double) inRate * up;
+        double cutoff = (passEdge + stopEdge) / 2 / upsampledRate;
+        double transition = (stopEdge - passEdge) / upsampledRate;
+        int length = (int) Math.ceil((STOPBAND_DB - 7.95) / (14.36 * transition)) + 1;
+        tapsPerPhase = (length + up - 1) / up;
+        length = tapsPerPhase * up;
+        double beta = 0.1102 * (STOPBAND_DB - 8.7);
+
+        double[] prototype = new double[length];
+        double center = (length - 1) / 2.0;
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            double t = i - center;
+            double sinc = t == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * t) / (Math.PI * t);
+            double r = t / (center + 0.5);
+            prototype[i] = sinc * besselI0(beta * Math.sqrt(Math.max(0.0, 1 - r * r)));
+            sum += prototype[i];
+        }
+
+        // Gain L makes up for the zeros of the upsampling, so DC passes with gain 1
+        coefficients = new float[length];
+        for (int p = 0; p < up; p++) {
+            for (int k = 0; k < tapsPerPhase; k++) {
+                coefficients[p * tapsPerPhase + tapsPerPhase - 1 - k] = (float) (prototype[p + k * up] * up / sum);
+            }
+        }
+
+        work = new float[tapsPerPhase - 1 + CHUNK];
+        reset();
+    }
+
+    public int getInputRate() {
+        return inRate;
+    }
+
+    public int getOutputRate() {
+        return outRate;
+    }
+
+    public int getTapsPerPhase() {
+        return tapsPerPhase;
+    }
+
+    // Delay the filter adds, in output samples
+    public double getDelay() {
+        return (tapsPerPhase * up - 1) / 2.0 / down;
+    }
+
+    // Upper bound of the number of outputs process() produces for inputLength inputs
+    public int maxOutput(int inputLength) {
+        return (int) (((long) inputLength * up + down - 1) / down) + 1;
+    }
+
+    // Forgets the stream so far; the next input starts a new one
+    public void reset() {
+        Arrays.fill(work, 0, tapsPerPhase - 1, 0.0f);
+        fill = tapsPerPhase - 1;
+        position = tapsPerPhase - 1;
+        phase = 0;
+    }
+
+    // Resamples in[offset, offset + length) into out[outOffset...], which must have room for
+    // maxOutput(length) samples; returns the number of samples written
+    public int process(float[] in, int offset, int length, float[] out, int outOffset) {
+        int produced = 0;
+        while (length > 0) {
+            int count = Math.min(length, work.length - fill);
+            System.arraycopy(in, offset, work, fill, count);
+            fill += count;
+            offset += count;
+            length -= count;
+            produced += drain(out, outOffset + produced, null, 0);
+        }
+        return produced;
+    }
+
+    // Same for 16-bit PCM; outputs are rounded and clipped to 16 bits
+    public int process(short[] in, int offset, int length, short[] out, int outOffset) {
+        int produced = 0;
+        while (length > 0) {
+            int count = Math.min(length, work.length - fill);
+            for (int i = 0; i < count; i++) {
+                work[fill + i] = in[offset + i];
+            }
+            fill += count;
+            offset += count;
+            length -= count;
+            produced += drain(null, 0, out, outOffset + produced);
+        }
+        return produced;
+    }
+
+    // Computes every output the buffered input allows, then keeps the history for the next chunk
+    private int drain(float[] floatOut, int floatOffset, short[] shortOut, int shortOffset) {
+        int produced = 0;
+        int step = down / up;
+        int phaseStep = down % up;
+        while (position < fill) {
+            float acc = 0.0f;
+            int c = phase * tapsPerPhase;
+            int x = position - tapsPerPhase + 1;
+            for (int k = 0; k < tapsPerPhase; k++) {
+                acc += coefficients[c + k] * work[x + k];
+            }
+            if (floatOut != null) {
+                floatOut[floatOffset + produced] = acc;
+            } else {
+                int value = Math.round(acc);
+                shortOut[shortOffset + produced] = (short) Math.max(-32768, Math.min(32767, value));
+            }
+            produced++;
+
+            position += step;
+            phase += phaseStep;
+            if (phase >= up) {
+                phase -= up;
+                position++;
+            }
+        }
+
+        int keep = tapsPerPhase - 1;
+        int drop = fill - keep;
+        System.arraycopy(work, drop, work, 0, keep);
+        fill = keep;
+        position -= drop;
+        return produced;
+    }
+
+    // Zeroth-order modified Bessel function of the first kind, by its power series
+    private static double besselI0(double x) {
+        double sum = 1.0;
+        double term = 1.0;
+        double half = x / 2;
+        for (int k = 1; k < 50; k++) {
+            term *= (half / k) * (half / k);
+            sum += term;
+            if (term < sum * 1e-17) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
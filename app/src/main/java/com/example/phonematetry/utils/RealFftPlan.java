@@ -0,0 +1,284 @@
+package com.example.phonematetry.utils;
+
+// Precomputed FFT plan for real-valued input of even length n.
+//
+// The real signal is packed into a complex sequence of length n/2 (even samples as the real
+// part, odd samples as the imaginary part), transformed with an iterative mixed-radix (2, 5)
+// FFT and then split back into the n/2 + 1 non-negative frequency bins. All twiddle factors
+// and the digit-reversal permutation are computed once in the constructor, so a transform
+// performs no trigonometry and no allocation.
+//
+// The plan itself is immutable and can be shared between threads; callers provide the scratch
+// buffer (see newWorkBuffer()).
+public class RealFftPlan {
+    private static final float SIN_2PI_5 = (float) Math.sin(2.0 * Math.PI / 5.0);
+    private static final float SIN_4PI_5 = (float) Math.sin(4.0 * Math.PI / 5.0);
+    private static final float COS_2PI_5 = (float) Math.cos(2.0 * Math.PI / 5.0);
+    private static final float COS_4PI_5 = (float) Math.cos(4.0 * Math.PI / 5.0);
+
+    private final int n;
+    private final int half;
+
+    // radices of the complex transform, outermost first
+    private final int[] factors;
+    // input permutation for the in-place iterative transform
+    private final int[] permutation;
+    // exp(-2*pi*i*j/half), j in [0, half)
+    private final float[] cosHalf;
+    private final float[] sinHalf;
+    // exp(-2*pi*i*k/n), k in [0, half]
+    private final float[] cosFull;
+    private final float[] sinFull;
+
+    public RealFftPlan(int n) {
+        if (n < 2 || n % 2 != 0) {
+            throw new IllegalArgumentException("FFT size must be even: " + n);
+        }
+        this.n = n;
+        this.half = n / 2;
+        this.factors = factorize(half);
+
+        permutation = new int[half];
+        buildPermutation(0, 0, 1, 0);
+
+        cosHalf = new float[half];
+        sinHalf = new float[half];
+        for (int j = 0; j < half; j++) {
+            double angle = 2.0 * Math.PI * j / half;
+            cosHalf[j] = (float) Math.cos(angle);
+            sinHalf[j] = (float) -Math.sin(angle);
+        }
+
+        cosFull = new float[half + 1];
+        sinFull = new float[half + 1];
+        for (int k = 0; k <= half; k++) {
+            double angle = 2.0 * Math.PI * k / n;
+            cosFull[k] = (float) Math.cos(angle);
+            sinFull[k] = (float) -Math.sin(angle);
+        }
+    }
+
+    public int size() {
+        return n;
+    }
+
+    // Number of non-negative frequency bins produced for a real input (n / 2 + 1)
+    public int binCount() {
+        return half + 1;
+    }
+
+    public float[] newWorkBuffer() {
+        return new float[2 * half];
+    }
+
+    // Forward transform of input[0, n). Writes interleaved re/im pairs for bins [0, n/2]
+    // into output, which must hold at least n + 2 floats.
+    public void forward(float[] input, float[] output, float[] work) {
+        transformPacked(input, work);
+        splitSpectrum(work, output);
+    }
+
+    // |X[k]|^2 for bins [0, n/2] of the real input. Output must hold at least n/2 + 1 floats.
+    public void powerSpectrum(float[] input, float[] output, float[] work) {
+        transformPacked(input, work);
+
+        output[0] = dcPower(work);
+        output[half] = nyquistPower(work);
+        for (int k = 1; k < half; k++) {
+            int m = half - k;
+            float zkRe = work[2 * k];
+            float zkIm = work[2 * k + 1];
+            float zmRe = work[2 * m];
+            float zmIm = work[2 * m + 1];
+
+            // even/odd spectra of the packed sequence
+            float eRe = 0.5f * (zkRe + zmRe);
+            float eIm = 0.5f * (zkIm - zmIm);
+            float oRe = 0.5f * (zkIm + zmIm);
+            float oIm = -0.5f * (zkRe - zmRe);
+
+            float wRe = cosFull[k];
+            float wIm = sinFull[k];
+            float re = eRe + wRe * oRe - wIm * oIm;
+            float im = eIm + wRe * oIm + wIm * oRe;
+            output[k] = re * re + im * im;
+        }
+    }
+
+    private void splitSpectrum(float[] work, float[] output) {
+        float z0Re = work[0];
+        float z0Im = work[1];
+        output[0] = z0Re + z0Im;
+        output[1] = 0.0f;
+        output[2 * half] = z0Re - z0Im;
+        output[2 * half + 1] = 0.0f;
+
+        for (int k = 1; k < half; k++) {
+            int m = half - k;
+            float zkRe = work[2 * k];
+            float zkIm = work[2 * k + 1];
+            float zmRe = work[2 * m];
+            float zmIm = work[2 * m + 1];
+
+            float eRe = 0.5f * (zkRe + zmRe);
+            float eIm = 0.5f * (zkIm - zmIm);
+            float oRe = 0.5f * (zkIm + zmIm);
+            float oIm = -0.5f * (zkRe - zmRe);
+
+            float wRe = cosFull[k];
+            float wIm = sinFull[k];
+            output[2 * k] = eRe + wRe * oRe - wIm * oIm;
+            output[2 * k + 1] = eIm + wRe * oIm + wIm * oRe;
+        }
+    }
+
+    private static float dcPower(float[] work) {
+        float dc = work[0] + work[1];
+        return dc * dc;
+    }
+
+    private static float nyquistPower(float[] work) {
+        float ny = work[0] - work[1];
+        return ny * ny;
+    }
+
+    // Complex FFT of the packed sequence z[m] = input[2m] + i*input[2m+1], in place in work
+    private void transformPacked(float[] input, float[] work) {
+        for (int m = 0; m < half; m++) {
+            int src = permutation[m];
+            work[2 * m] = input[2 * src];
+            work[2 * m + 1] = input[2 * src + 1];
+        }
+
+        // combine from the innermost radix outwards
+        int span = 1;
+        for (int s = factors.length - 1; s >= 0; s--) {
+            int radix = factors[s];
+            int length = span * radix;
+            int twiddleStep = half / length;
+            if (radix == 2) {
+                radix2(work, span, length, twiddleStep);
+            } else {
+                radix5(work, span, length, twiddleStep);
+            }
+            span = length;
+        }
+    }
+
+    private void radix2(float[] a, int span, int length, int twiddleStep) {
+        for (int block = 0; block < half; block += length) {
+            for (int k = 0; k < span; k++) {
+                int i0 = 2 * (block + k);
+                int i1 = i0 + 2 * span;
+                int t = k * twiddleStep;
+                float wRe = cosHalf[t];
+                float wIm = sinHalf[t];
+
+                float bRe = a[i1] * wRe - a[i1 + 1] * wIm;
+                float bIm = a[i1] * wIm + a[i1 + 1] * wRe;
+                float aRe = a[i0];
+                float aIm = a[i0 + 1];
+
+                a[i0] = aRe + bRe;
+                a[i0 + 1] = aIm + bIm;
+                a[i1] = aRe - bRe;
+                a[i1 + 1] = aIm - bIm;
+            }
+        }
+    }
+
+    private void radix5(float[] a, int span, int length, int twiddleStep) {
+        for (int block = 0; block < half; block += length) {
+            for (int k = 0; k < span; k++) {
+                int i0 = 2 * (block + k);
+                int i1 = i0 + 2 * span;
+                int i2 = i1 + 2 * span;
+                int i3 = i2 + 2 * span;
+                int i4 = i3 + 2 * span;
+
+                int t1 = k * twiddleStep;
+                int t2 = 2 * t1;
+                int t3 = 3 * t1;
+                int t4 = 4 * t1;
+
+                float x0Re = a[i0];
+                float x0Im = a[i0 + 1];
+                float x1Re = a[i1] * cosHalf[t1] - a[i1 + 1] * sinHalf[t1];
+                float x1Im = a[i1] * sinHalf[t1] + a[i1 + 1] * cosHalf[t1];
+                float x2Re = a[i2] * cosHalf[t2] - a[i2 + 1] * sinHalf[t2];
+                float x2Im = a[i2] * sinHalf[t2] + a[i2 + 1] * cosHalf[t2];
+                float x3Re = a[i3] * cosHalf[t3] - a[i3 + 1] * sinHalf[t3];
+                float x3Im = a[i3] * sinHalf[t3] + a[i3 + 1] * cosHalf[t3];
+                float x4Re = a[i4] * cosHalf[t4] - a[i4 + 1] * sinHalf[t4];
+                float x4Im = a[i4] * sinHalf[t4] + a[i4 + 1] * cosHalf[t4];
+
+                float s14Re = x1Re + x4Re;
+                float s14Im = x1Im + x4Im;
+                float d14Re = x1Re - x4Re;
+                float d14Im = x1Im - x4Im;
+                float s23Re = x2Re + x3Re;
+                float s23Im = x2Im + x3Im;
+                float d23Re = x2Re - x3Re;
+                float d23Im = x2Im - x3Im;
+
+                float aRe = x0Re + COS_2PI_5 * s14Re + COS_4PI_5 * s23Re;
+                float aIm = x0Im + COS_2PI_5 * s14Im + COS_4PI_5 * s23Im;
+                float bRe = x0Re + COS_4PI_5 * s14Re + COS_2PI_5 * s23Re;
+                float bIm = x0Im + COS_4PI_5 * s14Im + COS_2PI_5 * s23Im;
+
+                // multiplied by -i for the forward transform
+                float cRe = SIN_2PI_5 * d14Im + SIN_4PI_5 * d23Im;
+                float cIm = -(SIN_2PI_5 * d14Re + SIN_4PI_5 * d23Re);
+                float dRe = SIN_4PI_5 * d14Im - SIN_2PI_5 * d23Im;
+                float dIm = -(SIN_4PI_5 * d14Re - SIN_2PI_5 * d23Re);
+
+                a[i0] = x0Re + s14Re + s23Re;
+                a[i0 + 1] = x0Im + s14Im + s23Im;
+                a[i1] = aRe + cRe;
+                a[i1 + 1] = aIm + cIm;
+                a[i4] = aRe - cRe;
+                a[i4 + 1] = aIm - cIm;
+                a[i2] = bRe + dRe;
+                a[i2 + 1] = bIm + dIm;
+                a[i3] = bRe - dRe;
+                a[i3 + 1] = bIm - dIm;
+            }
+        }
+    }
+
+    // Simulates the decimation-in-time recursion to find which input lands at each leaf
+    private void buildPermutation(int outOffset, int inStart, int stride, int level) {
+        if (level == factors.length) {
+            permutation[outOffset] = inStart;
+            return;
+        }
+        int radix = factors[level];
+        int sub = half;
+        for (int i = 0; i <= level; i++) {
+            sub /= factors[i];
+        }
+        for (int r = 0; r < radix; r++) {
+            buildPermutation(outOffset + r * sub, inStart + r * stride, stride * radix, level + 1);
+        }
+    }
+
+    private static int[] factorize(int size) {
+        int count = 0;
+        int[] tmp = new int[32];
+        int rest = size;
+        while (rest % 2 == 0 && rest > 1) {
+            tmp[count++] = 2;
+            rest /= 2;
+        }
+        while (rest % 5 == 0 && rest > 1) {
+            tmp[count++] = 5;
+            rest /= 5;
+        }
+        if (rest != 1) {
+            throw new IllegalArgumentException("FFT size must be 2 * 2^a * 5^b: " + 2 * size);
+        }
+        int[] result = new int[count];
+        System.arraycopy(tmp, 0, result, 0, count);
+        return result;
+    }
+}
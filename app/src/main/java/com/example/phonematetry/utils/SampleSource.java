@@ -0,0 +1,16 @@
+package com.example.phonematetry.utils;
+
+// Mono audio that is read front to back in chunks, so audio of any length can be processed
+// without holding it as one float[]. Implemented by WavReader and by finished recordings.
+public interface SampleSource {
+    // Length in mono samples
+    int getFrameCount();
+
+    int getPosition();
+
+    void seek(int frame);
+
+    // Reads up to maxFrames samples in [-1, 1] into dest[offset...]. Returns the number of
+    // samples read, or -1 at the end of the data.
+    int read(float[] dest, int offset, int maxFrames);
+}
@@ -0,0 +1,116 @@
+package com.example.phonematetry.utils;
+
+import java.nio.FloatBuffer;
+
+// Incremental log-mel builder for live audio.
+//
+// PCM is appended while the user is still speaking and every frame whose 400-sample window is
+// complete is computed straight away (one frame per 10 ms hop). finish() only has to compute
+// the last few frames that reach into the zero padding and run the normalisation, and gives
+// exactly the same result as WhisperUtil.getMelSpectrogram() on the padded 30 s buffer.
+public class StreamingMelSpectrogram {
+    private final MelSpectrogram engine;
+    private final int capacity = WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE;
+    private final int nLen = capacity / WhisperUtil.WHISPER_HOP_LENGTH;
+    private final int nMel;
+
+    private final float[] samples = new float[capacity];
+    private int nSamples = 0;
+    private int nextFrame = 0;
+    private double mmax = -1e20;
+    private float[] data;
+
+    StreamingMelSpectrogram(MelSpectrogram engine, int nMel) {
+        this.engine = engine;
+        this.nMel = nMel;
+    }
+
+    // Drops any buffered audio and starts a new utterance
+    public synchronized void reset() {
+        nSamples = 0;
+        nextFrame = 0;
+        mmax = -1e20;
+    }
+
+    // 16-bit PCM at WHISPER_SAMPLE_RATE; audio past 30 seconds is ignored
+    public synchronized void append(short[] pcm, int offset, int length) {
+        ensureStarted();
+        int count = Math.min(length, capacity - nSamples);
+        for (int i = 0; i < count; i++) {
+            samples[nSamples + i] = pcm[offset + i] / 32768.0f;
+        }
+        nSamples += count;
+        computeReadyFrames();
+    }
+
+    public synchronized void append(float[] pcm, int offset, int length) {
+        ensureStarted();
+        int count = Math.min(length, capacity - nSamples);
+        System.arraycopy(pcm, offset, samples, nSamples, count);
+        nSamples += count;
+        computeReadyFrames();
+    }
+
+    public synchronized int getSampleCount() {
+        return nSamples;
+    }
+
+    // Frames already computed; the remaining ones are left for finish()
+    public synchronized int getReadyFrames() {
+        return nextFrame;
+    }
+
+    // Raw log10 mel energies computed so far, as nMel rows of WHISPER_MEL_LEN frames of which
+    // the first getReadyFrames() are valid, or null before any audio. The array is reused, so
+    // it must be read before the next append(), finish() or reset().
+    public synchronized float[] getRawFrames() {
+        return data;
+    }
+
+    // Completes the spectrogram (nMel rows of WHISPER_MEL_LEN frames) and resets the builder
+    public synchronized float[] finish(int nThreads) {
+        completeFrames(nThreads);
+        engine.normalize(data, nMel * nLen, mmax, nThreads);
+
+        float[] result = data;
+        data = null;
+        reset();
+        return result;
+    }
+
+    // Completes the spectrogram straight into dest, keeping the internal buffers for the next
+    // utterance
+    public synchronized void finish(FloatBuffer dest, int nThreads) {
+        completeFrames(nThreads);
+        engine.normalize(data, nMel * nLen, mmax, dest, nThreads);
+        reset();
+    }
+
+    private void completeFrames(int nThreads) {
+        ensureStarted();
+        double tailMax = engine.computeFrames(samples, nSamples, nextFrame, nLen, nLen, data, nThreads);
+        if (tailMax > mmax) {
+            mmax = tailMax;
+        }
+    }
+
+    private void ensureStarted() {
+        if (data == null) {
+            data = new float[nMel * nLen];
+        }
+    }
+
+    private void computeReadyFrames() {
+        // frame i covers samples [i * hop, i * hop + n_fft)
+        int ready = nSamples < WhisperUtil.WHISPER_N_FFT ? 0
+                : (nSamples - WhisperUtil.WHISPER_N_FFT) / WhisperUtil.WHISPER_HOP_LENGTH + 1;
+        ready = Math.min(ready, nLen);
+        if (ready > nextFrame) {
+            double frameMax = engine.computeFrames(samples, nSamples, nextFrame, ready, nLen, data, 1);
+            if (frameMax > mmax) {
+                mmax = frameMax;
+            }
+            nextFrame = ready;
+        }
+    }
+}
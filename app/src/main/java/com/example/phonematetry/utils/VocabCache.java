@@ -0,0 +1,155 @@
+package com.example.phonematetry.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+// Pre-parsed form of a filters_vocab_*.bin file.
+//
+// Parsing the vocab means walking ~50k length-prefixed entries to find where each token starts,
+// and the filter bank has to be scanned for its non-zero runs. Both results are plain int/float
+// arrays, so they are written once next to the source file and on later starts read back with
+// bulk buffer views. The cache records the source file's length and modification time and is
+// ignored when either no longer matches.
+//
+// Layout (native byte order):
+//   int magic, int version, long sourceLength, long sourceModified,
+//   int nMel, int nFft, int nVocab, int nWeights,
+//   int[nMel] bandStart, int[nMel] bandEnd, int[nMel] weightOffset,
+//   int[nVocab + 1] token offsets, float[nWeights] weights
+class VocabCache {
+    private static final int MAGIC = 0x57564331; // "WVC1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 2 * Integer.BYTES + 2 * Long.BYTES + 4 * Integer.BYTES;
+
+    final int nMel;
+    final int nFft;
+    final int[] bandStart;
+    final int[] bandEnd;
+    final int[] weightOffset;
+    final float[] weights;
+    final int[] offsets;
+
+    VocabCache(int nMel, int nFft, int[] bandStart, int[] bandEnd, int[] weightOffset,
+               float[] weights, int[] offsets) {
+        this.nMel = nMel;
+        this.nFft = nFft;
+        this.bandStart = bandStart;
+        this.bandEnd = bandEnd;
+        this.weightOffset = weightOffset;
+        this.weights = weights;
+        this.offsets = offsets;
+    }
+
+    // Returns null if the cache is missing, damaged or was built from a different source file.
+    // The arrays are checked before they are handed out, so a damaged cache that happens to have
+    // the right size is re-parsed instead of failing later in VocabStore or MelFilterBank.
+    static VocabCache read(File cacheFile, File sourceFile) throws IOException {
+        if (!cacheFile.isFile() || cacheFile.length() < HEADER_BYTES) {
+            return null;
+        }
+
+        ByteBuffer buf;
+        try (FileInputStream inputStream = new FileInputStream(cacheFile)) {
+            FileChannel fileChannel = inputStream.getChannel();
+            buf = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+        }
+        buf.order(ByteOrder.nativeOrder());
+
+        if (buf.getInt() != MAGIC || buf.getInt() != VERSION
+                || buf.getLong() != sourceFile.length() || buf.getLong() != sourceFile.lastModified()) {
+            return null;
+        }
+        int nMel = buf.getInt();
+        int nFft = buf.getInt();
+        int nVocab = buf.getInt();
+        int nWeights = buf.getInt();
+        if (nMel < 0 || nFft < 0 || nVocab < 0 || nWeights < 0) {
+            return null;
+        }
+        long expected = HEADER_BYTES + (3L * nMel + nVocab + 1) * Integer.BYTES + (long) nWeights * Float.BYTES;
+        if (buf.limit() != expected) {
+            return null;
+        }
+
+        int[] bandStart = new int[nMel];
+        int[] bandEnd = new int[nMel];
+        int[] weightOffset = new int[nMel];
+        int[] offsets = new int[nVocab + 1];
+        float[] weights = new float[nWeights];
+
+        buf.slice().order(ByteOrder.nativeOrder()).asIntBuffer()
+                .get(bandStart).get(bandEnd).get(weightOffset).get(offsets);
+        buf.position(buf.position() + (3 * nMel + nVocab + 1) * Integer.BYTES);
+        buf.slice().order(ByteOrder.nativeOrder()).asFloatBuffer().get(weights);
+
+        if (!isValidFilterBank(nFft, bandStart, bandEnd, weightOffset, nWeights)
+                || !isValidOffsets(offsets, sourceFile.length())) {
+            return null;
+        }
+        return new VocabCache(nMel, nFft, bandStart, bandEnd, weightOffset, weights, offsets);
+    }
+
+    // Every band is a run of bins within [0, nFft) whose weights lie within the weight array
+    private static boolean isValidFilterBank(int nFft, int[] bandStart, int[] bandEnd, int[] weightOffset,
+                                             int nWeights) {
+        for (int j = 0; j < bandStart.length; j++) {
+            if (bandStart[j] < 0 || bandStart[j] > bandEnd[j] || bandEnd[j] > nFft
+                    || weightOffset[j] < 0 || weightOffset[j] > nWeights - (bandEnd[j] - bandStart[j])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Every entry has room for its length prefix and the entries stay within the source file
+    private static boolean isValidOffsets(int[] offsets, long limit) {
+        if (offsets[0] < 0) {
+            return false;
+        }
+        for (int i = 1; i < offsets.length; i++) {
+            if (offsets[i] - offsets[i - 1] < Integer.BYTES) {
+                return false;
+            }
+        }
+        return offsets[offsets.length - 1] <= limit;
+    }
+
+    // Written to a temporary file first so a crash never leaves a half-written cache behind
+    void write(File cacheFile, File sourceFile) throws IOException {
+        int nVocab = offsets.length - 1;
+        int size = HEADER_BYTES + (3 * nMel + nVocab + 1) * Integer.BYTES + weights.length * Float.BYTES;
+        ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putLong(sourceFile.length());
+        buf.putLong(sourceFile.lastModified());
+        buf.putInt(nMel);
+        buf.putInt(nFft);
+        buf.putInt(nVocab);
+        buf.putInt(weights.length);
+
+        buf.slice().order(ByteOrder.nativeOrder()).asIntBuffer()
+                .put(bandStart).put(bandEnd).put(weightOffset).put(offsets);
+        buf.position(buf.position() + (3 * nMel + nVocab + 1) * Integer.BYTES);
+        buf.slice().order(ByteOrder.nativeOrder()).asFloatBuffer().put(weights);
+        buf.clear();
+
+        File tmpFile = new File(cacheFile.getPath() + ".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(tmpFile)) {
+            FileChannel fileChannel = outputStream.getChannel();
+            while (buf.hasRemaining()) {
+                fileChannel.write(buf);
+            }
+        }
+        if (!tmpFile.renameTo(cacheFile)) {
+            tmpFile.delete();
+            throw new IOException("Cannot replace " + cacheFile);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.phonematetry.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+// Token id -> bytes lookup over the vocabulary section of a filters_vocab_*.bin file.
+//
+// The file stores every token as [int length][bytes]. Instead of materialising one String per
+// token, the store keeps the (usually memory-mapped) file buffer and a single int[] with the
+// position of each entry, so a lookup is an array index and a few bytes read from the buffer.
+// Text is only decoded when asked for, and appendText() decodes a whole token sequence at once
+// so multi-byte characters split across tokens come out right.
+public class VocabStore {
+    private final ByteBuffer blob;
+    // offsets[i] is the position of token i's length prefix; offsets[size] marks the end
+    private final int[] offsets;
+
+    // reused by appendText()
+    private final ByteBuffer reader;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private byte[] bytes = new byte[256];
+    private char[] chars = new char[256];
+    private ByteBuffer byteView = ByteBuffer.wrap(bytes);
+    private CharBuffer charView = CharBuffer.wrap(chars);
+
+    // Indexes nTokens entries starting at position start of blob (byte order already set)
+    public VocabStore(ByteBuffer blob, int start, int nTokens) {
+        this.blob = blob;
+        this.offsets = new int[nTokens + 1];
+        int pos = start;
+        for (int i = 0; i < nTokens; i++) {
+            offsets[i] = pos;
+            pos += Integer.BYTES + blob.getInt(pos);
+        }
+        offsets[nTokens] = pos;
+        this.reader = blob.duplicate();
+    }
+
+    // Uses an offset table saved by VocabCache instead of scanning the entries
+    VocabStore(ByteBuffer blob, int[] offsets) {
+        this.blob = blob;
+        this.offsets = offsets;
+        this.reader = blob.duplicate();
+    }
+
+    int[] getOffsets() {
+        return offsets;
+    }
+
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    // Position just past the last entry, i.e. where the vocabulary section ends
+    public int getEnd() {
+        return offsets[offsets.length - 1];
+    }
+
+    public boolean contains(int token) {
+        return token >= 0 && token < size();
+    }
+
+    public int getLength(int token) {
+        return offsets[token + 1] - offsets[token] - Integer.BYTES;
+    }
+
+    // Decodes a single token; allocates, so not meant for the decode loop
+    public String getWord(int token) {
+        if (!contains(token)) {
+            return null;
+        }
+        byte[] word = new byte[getLength(token)];
+        ByteBuffer view = blob.duplicate();
+        view.position(offsets[token] + Integer.BYTES);
+        view.get(word);
+        return new String(word, StandardCharsets.UTF_8);
+    }
+
+    // Appends the text of tokens[0, count) to out. Ids outside the store and "[_...]" entries
+    // are skipped. Allocation-free once the internal buffers have grown to the longest text.
+    public synchronized void appendText(int[] tokens, int count, StringBuilder out) {
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            int token = tokens[i];
+            if (!contains(token)) {
+                continue;
+            }
+            int pos = offsets[token] + Integer.BYTES;
+            int len = getLength(token);
+            if (len >= 2 && blob.get(pos) == '[' && blob.get(pos + 1) == '_') {
+                continue;
+            }
+            ensureByteCapacity(length + len);
+            reader.position(pos);
+            reader.get(bytes, length, len);
+            length += len;
+        }
+        if (length == 0) {
+            return;
+        }
+
+        ensureCharCapacity(length);
+        byteView.clear();
+        byteView.limit(length);
+        charView.clear();
+        decoder.reset();
+        decoder.decode(byteView, charView, true);
+        decoder.flush(charView);
+        out.append(chars, 0, charView.position());
+    }
+
+    private void ensureByteCapacity(int needed) {
+        if (needed > bytes.length) {
+            byte[] grown = new byte[Math.max(needed, 2 * bytes.length)];
+            System.arraycopy(bytes, 0, grown, 0, bytes.length);
+            bytes = grown;
+            byteView = ByteBuffer.wrap(bytes);
+        }
+    }
+
+    private void ensureCharCapacity(int needed) {
+        // UTF-8 never produces more chars than bytes
+        if (needed > chars.length) {
+            chars = new char[Math.max(needed, 2 * chars.length)];
+            charView = CharBuffer.wrap(chars);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.phonematetry.utils;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+// Sequential reader for RIFF/WAVE files.
+//
+// The file is memory-mapped and samples are converted straight out of the mapping into the
+// caller's buffer, downmixed to mono, so a file of any length is read in fixed-size chunks
+// without ever holding it as one float[]. Supports 16-bit PCM and 32-bit float data (plain or
+// WAVE_FORMAT_EXTENSIBLE) with any number of channels.
+public class WavReader implements SampleSource {
+    private static final int RIFF = 0x46464952;
+    private static final int WAVE = 0x45564157;
+    private static final int FMT = 0x20746d66;
+    private static final int DATA = 0x61746164;
+
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_FLOAT = 3;
+    private static final int FORMAT_EXTENSIBLE = 0xfffe;
+
+    private final int sampleRate;
+    private final int channels;
+    private final boolean isFloat;
+    private final int frameCount;
+    // views over the data chunk; only the one matching the sample format is set
+    private final ShortBuffer pcm16;
+    private final FloatBuffer pcmFloat;
+    private int framePos = 0;
+
+    private WavReader(int sampleRate, int channels, boolean isFloat, ByteBuffer data) {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.isFloat = isFloat;
+        if (isFloat) {
+            pcm16 = null;
+            pcmFloat = data.asFloatBuffer();
+            frameCount = pcmFloat.limit() / channels;
+        } else {
+            pcm16 = data.asShortBuffer();
+            pcmFloat = null;
+            frameCount = pcm16.limit() / channels;
+        }
+    }
+
+    public static WavReader open(String path) throws IOException {
+        ByteBuffer buf;
+        try (FileInputStream inputStream = new FileInputStream(path)) {
+            FileChannel fileChannel = inputStream.getChannel();
+            buf = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+        }
+        return parse(buf, path);
+    }
+
+    // Parses the WAV file in buf, which the reader keeps reading from; name is for errors
+    static WavReader parse(ByteBuffer buf, String name) throws IOException {
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.limit() < 12 || buf.getInt(0) != RIFF || buf.getInt(8) != WAVE) {
+            throw new IOException("Not a WAV file: " + name);
+        }
+
+        int format = 0;
+        int channels = 0;
+        int sampleRate = 0;
+        int bits = 0;
+        int pos = 12;
+        while (pos + 8 <= buf.limit()) {
+            int id = buf.getInt(pos);
+            long size = buf.getInt(pos + 4) & 0xffffffffL;
+            int body = pos + 8;
+            if (id == FMT) {
+                if (size < 16 || body + 16 > buf.limit()) {
+                    throw new IOException("Truncated fmt chunk: " + name);
+                }
+                format = buf.getShort(body) & 0xffff;
+                channels = buf.getShort(body + 2) & 0xffff;
+                sampleRate = buf.getInt(body + 4);
+                bits = buf.getShort(body + 14) & 0xffff;
+                if (format == FORMAT_EXTENSIBLE && size >= 26 && body + 26 <= buf.limit()) {
+                    // the sub-format GUID starts with the plain format code
+                    format = buf.getShort(body + 24) & 0xffff;
+                }
+            } else if (id == DATA) {
+                if (channels == 0) {
+                    throw new IOException("data chunk before fmt chunk: " + name);
+                }
+                boolean isFloat;
+                if (format == FORMAT_PCM && bits == 16) {
+                    isFloat = false;
+                } else if (format == FORMAT_FLOAT && bits == 32) {
+                    isFloat = true;
+                } else {
+                    throw new IOException("Unsupported WAV format " + format + " with " + bits + " bits: " + name);
+                }
+                // recorders that never patch the header leave the size at 0 or 0xffffffff
+                int end = size == 0 || body + size > buf.limit() ? buf.limit() : (int) (body + size);
+                buf.position(body);
+                buf.limit(end);
+                ByteBuffer data = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+                return new WavReader(sampleRate, channels, isFloat, data);
+            }
+            pos = (int) Math.min(buf.limit(), body + size + (size & 1));
+        }
+        throw new IOException("No data chunk: " + name);
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public boolean isFloat() {
+        return isFloat;
+    }
+
+    // Length in frames, i.e. mono samples after downmixing
+    @Override
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public int getPosition() {
+        return framePos;
+    }
+
+    @Override
+    public void seek(int frame) {
+        framePos = Math.max(0, Math.min(frame, frameCount));
+    }
+
+    // Reads up to maxFrames mono samples in [-1, 1] into dest[offset...]. Returns the number of
+    // samples read, or -1 at the end of the data.
+    @Override
+    public int read(float[] dest, int offset, int maxFrames) {
+        int count = Math.min(maxFrames, frameCount - framePos);
+        if (count <= 0) {
+            return -1;
+        }
+        int base = framePos * channels;
+        if (channels == 1) {
+            if (isFloat) {
+                for (int i = 0; i < count; i++) {
+                    dest[offset + i] = pcmFloat.get(base + i);
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    dest[offset + i] = pcm16.get(base + i) / 32768.0f;
+                }
+            }
+        } else {
+            float scale = isFloat ? 1.0f / channels : 1.0f / (32768.0f * channels);
+            for (int i = 0; i < count; i++) {
+                int s = base + i * channels;
+                float sum = 0.0f;
+                for (int c = 0; c < channels; c++) {
+                    sum += isFloat ? pcmFloat.get(s + c) : pcm16.get(s + c);
+                }
+                dest[offset + i] = sum * scale;
+            }
+        }
+        framePos += count;
+        return count;
+    }
+}
@@ -1,21 +1,17 @@
 package com.example.phonematetry.utils;
 
-import static java.lang.Math.cos;
-import static java.lang.Math.log10;
-import static java.lang.Math.sin;
-
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 public class WhisperUtil {
     private static final String TAG = "WhisperUtil";
@@ -30,6 +26,9 @@ public class WhisperUtil {
     private final WhisperVocab vocab = new WhisperVocab();
     private final WhisperFilter filters = new WhisperFilter();
     private final WhisperMel mel = new WhisperMel();
+    private MelFilterBank filterBank;
+    private MelSpectrogram melSpectrogram;
+    private float[] melWorkspace;
 
     // Helper functions definitions
     public int getTokenTranslate() {
@@ -65,20 +64,60 @@ public class WhisperUtil {
     }
 
     public String getWordFromToken(int token) {
-        return vocab.tokenToWord.get(token);
+        if (vocab.store.contains(token)) {
+            return vocab.store.getWord(token);
+        }
+        if (token >= vocab.store.size() && token < vocab.nVocabTotal) {
+            return getSpecialWord(token);
+        }
+        return null;
+    }
+
+    // Appends the text of tokens[0, count) to out, skipping special tokens
+    public void appendText(int[] tokens, int count, StringBuilder out) {
+        vocab.store.appendText(tokens, count, out);
+    }
+
+    // Names of the ids past the end of the vocab file, which are all special tokens
+    private String getSpecialWord(int i) {
+        if (i > vocab.tokenBEG) {
+            return "[_TT_" + (i - vocab.tokenBEG) + "]";
+        } else if (i == vocab.tokenEOT) {
+            return "[_EOT_]";
+        } else if (i == vocab.tokenSOT) {
+            return "[_SOT_]";
+        } else if (i == vocab.tokenPREV) {
+            return "[_PREV_]";
+        } else if (i == vocab.tokenNOT) {
+            return "[_NOT_]";
+        } else if (i == vocab.tokenBEG) {
+            return "[_BEG_]";
+        } else {
+            return "[_extra_token_" + i + "]";
+        }
     }
 
     // Load filters and vocab data from pre-generated filters_vocab_en.bin file
     public boolean loadFiltersAndVocab(boolean multilingual, String vocabPath) throws IOException {
+        return loadFiltersAndVocab(multilingual, vocabPath, null);
+    }
 
-        // Read vocab file
-        byte[] bytes = Files.readAllBytes(Paths.get(vocabPath));
-        ByteBuffer vocabBuf = ByteBuffer.wrap(bytes);
+    // Same as above; when cachePath is set, the parsed vocab offsets and compact filter bank are
+    // read from that file (or written to it on the first run) instead of being rebuilt
+    public boolean loadFiltersAndVocab(boolean multilingual, String vocabPath, String cachePath) throws IOException {
+
+        // Map vocab file; token bytes are read from the mapping on demand
+        ByteBuffer vocabBuf;
+        try (FileInputStream inputStream = new FileInputStream(vocabPath)) {
+            FileChannel fileChannel = inputStream.getChannel();
+            vocabBuf = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+        }
         vocabBuf.order(ByteOrder.nativeOrder());
         Log.d(TAG, "Vocab file size: " + vocabBuf.limit());
 
-        // @magic:USEN
-        int magic = vocabBuf.getInt();
+        // Header: @magic:USEN, n_mel, n_fft
+        IntBuffer header = vocabBuf.asIntBuffer();
+        int magic = header.get();
         if (magic == 0x5553454e) {
             Log.d(TAG, "Magic number: " + magic);
         } else {
@@ -86,32 +125,57 @@ public class WhisperUtil {
             return false;
         }
 
-        // Load mel filters
-        filters.nMel = vocabBuf.getInt();
-        filters.nFft = vocabBuf.getInt();
+        // Mel filters; the dense matrix is only read if the compact bank has to be built
+        filters.nMel = header.get();
+        filters.nFft = header.get();
         Log.d(TAG, "n_mel:" + filters.nMel + ", n_fft:" + filters.nFft);
-
-        byte[] filterData = new byte[filters.nMel * filters.nFft * Float.BYTES];
-        vocabBuf.get(filterData, 0, filterData.length);
-        ByteBuffer filterBuf = ByteBuffer.wrap(filterData);
-        filterBuf.order(ByteOrder.nativeOrder());
-
-        filters.data = new float[filters.nMel * filters.nFft];
-        for (int i = 0; filterBuf.hasRemaining(); i++) {
-            filters.data[i] = filterBuf.getFloat();
-        }
+        int filtersOffset = 3 * Integer.BYTES;
+        vocabBuf.position(filtersOffset + filters.nMel * filters.nFft * Float.BYTES);
 
         // Load vocabulary
         int nVocab = vocabBuf.getInt();
         Log.d(TAG, "nVocab: " + nVocab);
 
-        for (int i = 0; i < nVocab; i++) {
-            int len = vocabBuf.getInt();
-            byte[] wordBytes = new byte[len];
-            vocabBuf.get(wordBytes, 0, wordBytes.length);
-            String word = new String(wordBytes);
-            vocab.tokenToWord.put(i, word);
+        File sourceFile = new File(vocabPath);
+        File cacheFile = cachePath != null ? new File(cachePath) : null;
+        VocabCache cache = null;
+        if (cacheFile != null) {
+            try {
+                cache = VocabCache.read(cacheFile, sourceFile);
+            } catch (IOException e) {
+                Log.w(TAG, "Ignoring unreadable vocab cache " + cachePath, e);
+            }
+            if (cache != null && (cache.nMel != filters.nMel || cache.nFft != filters.nFft
+                    || cache.offsets.length != nVocab + 1 || cache.offsets[0] != vocabBuf.position())) {
+                cache = null;
+            }
+        }
+
+        if (cache != null) {
+            Log.d(TAG, "Using vocab cache " + cachePath);
+            vocab.store = new VocabStore(vocabBuf, cache.offsets);
+            filterBank = new MelFilterBank(filters.nMel, filters.nFft,
+                    cache.bandStart, cache.bandEnd, cache.weightOffset, cache.weights);
+        } else {
+            vocab.store = new VocabStore(vocabBuf, vocabBuf.position(), nVocab);
+            // One bulk copy out of the mapping
+            float[] dense = new float[filters.nMel * filters.nFft];
+            ByteBuffer filterBuf = vocabBuf.duplicate();
+            filterBuf.position(filtersOffset);
+            filterBuf.slice().order(ByteOrder.nativeOrder()).asFloatBuffer().get(dense);
+            filterBank = new MelFilterBank(dense, filters.nMel, filters.nFft);
+            if (cacheFile != null) {
+                try {
+                    new VocabCache(filters.nMel, filters.nFft, filterBank.getBandStart(),
+                            filterBank.getBandEnd(), filterBank.getWeightOffset(),
+                            filterBank.getWeights(), vocab.store.getOffsets()).write(cacheFile, sourceFile);
+                } catch (IOException e) {
+                    // Only costs the parse on the next start as well
+                    Log.w(TAG, "Failed to write vocab cache " + cachePath, e);
+                }
+            }
         }
+        vocabBuf.position(vocab.store.getEnd());
 
         // Add additional vocab ids
         int nVocabAdditional;
@@ -127,166 +191,52 @@ public class WhisperUtil {
             vocab.tokenBEG++;
         }
 
-        for (int i = nVocab; i < nVocabAdditional; i++) {
-            String word;
-            if (i > vocab.tokenBEG) {
-                word = "[_TT_" + (i - vocab.tokenBEG) + "]";
-            } else if (i == vocab.tokenEOT) {
-                word = "[_EOT_]";
-            } else if (i == vocab.tokenSOT) {
-                word = "[_SOT_]";
-            } else if (i == vocab.tokenPREV) {
-                word = "[_PREV_]";
-            } else if (i == vocab.tokenNOT) {
-                word = "[_NOT_]";
-            } else if (i == vocab.tokenBEG) {
-                word = "[_BEG_]";
-            } else {
-                word = "[_extra_token_" + i + "]";
-            }
+        vocab.nVocabTotal = Math.max(nVocab, nVocabAdditional);
 
-            vocab.tokenToWord.put(i, word);
-            //Log.d(TAG, "i= " + i + ", word= " + word);
+        Log.d(TAG, "Mel filter bank: " + filterBank.getWeightCount() + " non-zero weights of "
+                + filters.nMel * filters.nFft);
+        if (melSpectrogram != null) {
+            melSpectrogram.release();
         }
-
+        melSpectrogram = new MelSpectrogram(filterBank);
         return true;
     }
 
     // nSamples size => WHISPER_SAMPLE_RATE * WHISPER_CHUNK_SIZE => 480000
     public float[] getMelSpectrogram(float[] samples, int nSamples, int nThreads) {
-
-        int fftSize = WHISPER_N_FFT;
-        int fftStep = WHISPER_HOP_LENGTH;
-
         mel.nMel = WHISPER_N_MEL;
-        mel.nLen = nSamples / fftStep;
+        mel.nLen = nSamples / WHISPER_HOP_LENGTH;
         mel.data = new float[mel.nMel * mel.nLen];
 
-        float[] hann = new float[fftSize];
-        for (int i = 0; i < fftSize; i++) {
-            hann[i] = (float) (0.5 * (1.0 - cos(2.0 * Math.PI * i / fftSize)));
-        }
-
-        int nFft = 1 + fftSize / 2;
-
-        // Single-threaded implementation for simplicity
-        float[] fftIn = new float[fftSize];
-        Arrays.fill(fftIn, 0.0f);
-        float[] fftOut = new float[fftSize * 2];
-
-        for (int i = 0; i < mel.nLen; i++) {
-            int offset = i * fftStep;
-
-            // apply Hanning window
-            for (int j = 0; j < fftSize; j++) {
-                if (offset + j < nSamples) {
-                    fftIn[j] = hann[j] * samples[offset + j];
-                } else {
-                    fftIn[j] = 0.0f;
-                }
-            }
-
-            // FFT -> mag^2
-            fft(fftIn, fftOut);
-            for (int j = 0; j < fftSize; j++) {
-                fftOut[j] = fftOut[2 * j] * fftOut[2 * j] + fftOut[2 * j + 1] * fftOut[2 * j + 1];
-            }
-
-            for (int j = 1; j < fftSize / 2; j++) {
-                fftOut[j] += fftOut[fftSize - j];
-            }
-
-            // mel spectrogram
-            for (int j = 0; j < mel.nMel; j++) {
-                double sum = 0.0;
-                for (int k = 0; k < nFft; k++) {
-                    sum += fftOut[k] * filters.data[j * filters.nFft + k];
-                }
-                if (sum < 1e-10) {
-                    sum = 1e-10;
-                }
-                mel.data[j * mel.nLen + i] = (float) log10(sum);
-            }
-        }
-
-        // clamping and normalization
-        double mmax = -1e20;
-        for (int i = 0; i < mel.nMel * mel.nLen; i++) {
-            if (mel.data[i] > mmax) {
-                mmax = mel.data[i];
-            }
-        }
-
-        mmax -= 8.0;
-
-        for (int i = 0; i < mel.nMel * mel.nLen; i++) {
-            if (mel.data[i] < mmax) {
-                mel.data[i] = (float) mmax;
-            }
-            mel.data[i] = (mel.data[i] + 4.0f) / 4.0f;
-        }
-
+        melSpectrogram.compute(samples, nSamples, mel.nLen, mel.data, nThreads);
         return mel.data;
     }
 
-    private void dft(float[] input, float[] output) {
-        int inSize = input.length;
-        for (int k = 0; k < inSize; k++) {
-            float re = 0.0f;
-            float im = 0.0f;
-            for (int n = 0; n < inSize; n++) {
-                float angle = (float) (2 * Math.PI * k * n / inSize);
-                re += input[n] * cos(angle);
-                im -= input[n] * sin(angle);
-            }
-            output[k * 2 + 0] = re;
-            output[k * 2 + 1] = im;
+    // Writes the normalised 30 s spectrogram of samples[0, nSamples) into dest (e.g. the model
+    // input buffer). Shorter input is treated as zero padded, longer input is cut at 30 s, so
+    // callers do not need a padded copy. Allocation-free after the first call.
+    public void getMelSpectrogram(float[] samples, int nSamples, FloatBuffer dest, int nThreads) {
+        if (melWorkspace == null) {
+            melWorkspace = new float[WHISPER_N_MEL * WHISPER_MEL_LEN];
         }
-    }
+        int nValid = Math.min(nSamples, WHISPER_SAMPLE_RATE * WHISPER_CHUNK_SIZE);
 
-    private void fft(float[] input, float[] output) {
-        int inSize = input.length;
-        if (inSize == 1) {
-            output[0] = input[0];
-            output[1] = 0.0f;
-            return;
-        }
+        melSpectrogram.compute(samples, nValid, WHISPER_MEL_LEN, melWorkspace, dest, nThreads);
+    }
 
-        if (inSize % 2 == 1) {
-            dft(input, output);
-            return;
-        }
+    public MelFilterBank getFilterBank() {
+        return filterBank;
+    }
 
-        float[] even = new float[inSize / 2];
-        float[] odd = new float[inSize / 2];
-
-        int indxEven = 0;
-        int indxOdd = 0;
-        for (int i = 0; i < inSize; i++) {
-            if (i % 2 == 0) {
-                even[indxEven] = input[i];
-                indxEven++;
-            } else {
-                odd[indxOdd] = input[i];
-                indxOdd++;
-            }
-        }
+    // Incremental builder producing the same spectrogram as getMelSpectrogram() from live PCM
+    public StreamingMelSpectrogram createStreamingMel() {
+        return new StreamingMelSpectrogram(melSpectrogram, filterBank.getMelCount());
+    }
 
-        float[] evenFft = new float[inSize];
-        float[] oddFft = new float[inSize];
-
-        fft(even, evenFft);
-        fft(odd, oddFft);
-        for (int k = 0; k < inSize / 2; k++) {
-            float theta = (float) (2 * Math.PI * k / inSize);
-            float re = (float) cos(theta);
-            float im = (float) -sin(theta);
-            float reOdd = oddFft[2 * k + 0];
-            float imOdd = oddFft[2 * k + 1];
-            output[2 * k + 0] = evenFft[2 * k + 0] + re * reOdd - im * imOdd;
-            output[2 * k + 1] = evenFft[2 * k + 1] + re * imOdd + im * reOdd;
-            output[2 * (k + inSize / 2) + 0] = evenFft[2 * k + 0] - re * reOdd + im * imOdd;
-            output[2 * (k + inSize / 2) + 1] = evenFft[2 * k + 1] - re * imOdd - im * reOdd;
+    // Stops the mel worker threads; they are started again by the next multi-threaded call
+    public void release() {
+        if (melSpectrogram != null) {
+            melSpectrogram.release();
         }
     }
 
@@ -311,13 +261,13 @@ public class WhisperUtil {
         // Vocab types
         final int nVocabEnglish = 51864;       // for english only vocab
         final int nVocabMultilingual = 51865;  // for multilingual vocab
-        Map<Integer, String> tokenToWord = new HashMap<>();
+        VocabStore store = new VocabStore(ByteBuffer.allocate(0), 0, 0);
+        int nVocabTotal = 0;
     }
 
     private static class WhisperFilter {
         int nMel = 0;
         int nFft = 0;
-        float[] data;
     }
 
     private static class WhisperMel {
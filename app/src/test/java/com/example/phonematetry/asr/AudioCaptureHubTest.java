@@ -0,0 +1,239 @@
+package com.example.phonematetry.asr;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sharing one capture device between consumers, with a fake device that delivers a block each
+ * time the test lets it: every consumer gets every block, the device opens once however many
+ * consumers there are, and it stops with the last one.
+ */
+public class AudioCaptureHubTest {
+    private static final int RATE = 48000;
+    private static final int BLOCK = 480;
+    private static final long TIMEOUT_MS = 5000;
+
+    private final FakeFactory factory = new FakeFactory();
+    private final AudioCaptureHub hub = new AudioCaptureHub(RATE, factory);
+    private final List<RecordingConsumer> consumers = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        // Stops the capture thread
+        for (RecordingConsumer consumer : consumers) {
+            hub.removeConsumer(consumer);
+        }
+    }
+
+    @Test
+    public void consumers_getEveryBlock() throws Exception {
+        RecordingConsumer first = newConsumer();
+        RecordingConsumer second = newConsumer();
+        assertTrue(hub.addConsumer(first));
+        assertTrue(hub.addConsumer(second));
+
+        FakeDevice device = factory.last();
+        device.blocks.release(5);
+        first.awaitSamples(5 * BLOCK);
+        second.awaitSamples(5 * BLOCK);
+
+        assertEquals(first.samples(), second.samples());
+        assertEquals(5 * BLOCK, first.samples().size());
+        for (int i = 0; i < 5 * BLOCK; i++) {
+            assertEquals((short) i, (short) first.samples().get(i));
+        }
+        assertEquals(RATE, first.sampleRate);
+        assertEquals(RATE, hub.getSampleRate());
+    }
+
+    @Test
+    public void oneDevice_forAllConsumers() {
+        assertTrue(hub.addConsumer(newConsumer()));
+        assertTrue(hub.addConsumer(newConsumer()));
+        assertTrue(hub.addConsumer(newConsumer()));
+        assertEquals(1, factory.opened.size());
+        assertTrue(hub.isCapturing());
+    }
+
+    @Test
+    public void addConsumer_twiceIsOneConsumer() throws Exception {
+        RecordingConsumer consumer = newConsumer();
+        assertTrue(hub.addConsumer(consumer));
+        assertTrue(hub.addConsumer(consumer));
+        factory.last().blocks.release(2);
+        consumer.awaitSamples(2 * BLOCK);
+
+        hub.removeConsumer(consumer);
+        assertFalse(hub.isCapturing());
+        assertEquals(2 * BLOCK, consumer.samples().size());
+    }
+
+    @Test
+    public void device_stopsWithLastConsumer() throws Exception {
+        RecordingConsumer first = newConsumer();
+        RecordingConsumer second = newConsumer();
+        hub.addConsumer(first);
+        hub.addConsumer(second);
+        FakeDevice device = factory.last();
+
+        hub.removeConsumer(first);
+        assertTrue(hub.isCapturing());
+        assertFalse(device.released);
+        device.blocks.release(1);
+        second.awaitSamples(BLOCK);
+        assertEquals(0, first.samples().size());
+
+        hub.removeConsumer(second);
+        assertFalse(hub.isCapturing());
+        assertTrue(device.released);
+
+        // The next consumer opens a new device
+        hub.addConsumer(first);
+        assertEquals(2, factory.opened.size());
+        assertTrue(hub.isCapturing());
+    }
+
+    @Test
+    public void fallsBackTo16kHz() throws Exception {
+        factory.failRate = RATE;
+        RecordingConsumer consumer = newConsumer();
+        assertTrue(hub.addConsumer(consumer));
+        assertEquals(16000, hub.getSampleRate());
+        factory.last().blocks.release(1);
+        consumer.awaitSamples(BLOCK);
+        assertEquals(16000, consumer.sampleRate);
+    }
+
+    @Test
+    public void noDevice_addConsumerFails() {
+        factory.failRate = -1;
+        assertFalse(hub.addConsumer(newConsumer()));
+        assertFalse(hub.isCapturing());
+    }
+
+    @Test
+    public void deviceError_releasesDeviceAndRemovesEveryConsumer() throws Exception {
+        RecordingConsumer first = newConsumer();
+        RecordingConsumer second = newConsumer();
+        hub.addConsumer(first);
+        hub.addConsumer(second);
+        FakeDevice device = factory.last();
+        device.error = -3;
+        device.blocks.release(1);
+
+        assertTrue(first.errors.tryAcquire(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertTrue(second.errors.tryAcquire(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertFalse(hub.isCapturing());
+        // Released by the capture thread, without waiting for a consumer to come or go
+        assertTrue(device.released);
+
+        // A new consumer gets a fresh device
+        RecordingConsumer third = newConsumer();
+        assertTrue(hub.addConsumer(third));
+        assertEquals(2, factory.opened.size());
+        factory.last().blocks.release(1);
+        third.awaitSamples(BLOCK);
+        assertEquals(0, first.samples().size());
+    }
+
+    private RecordingConsumer newConsumer() {
+        RecordingConsumer consumer = new RecordingConsumer();
+        consumers.add(consumer);
+        return consumer;
+    }
+
+    // Opens fake devices, none at failRate (-1: none at all)
+    private static class FakeFactory implements AudioCaptureHub.DeviceFactory {
+        final List<FakeDevice> opened = new ArrayList<>();
+        volatile int failRate = 0;
+
+        @Override
+        public synchronized AudioCaptureHub.Device open(int sampleRate) {
+            if (failRate == -1 || failRate == sampleRate) {
+                return null;
+            }
+            FakeDevice device = new FakeDevice();
+            opened.add(device);
+            return device;
+        }
+
+        synchronized FakeDevice last() {
+            return opened.get(opened.size() - 1);
+        }
+    }
+
+    // Delivers a block of consecutive sample values per permit, or error if set
+    private static class FakeDevice implements AudioCaptureHub.Device {
+        final Semaphore blocks = new Semaphore(0);
+        volatile int error = 0;
+        volatile boolean released = false;
+        private short next = 0;
+
+        @Override
+        public int getReadSize() {
+            return BLOCK;
+        }
+
+        @Override
+        public int read(short[] buffer, int offset, int length) {
+            try {
+                if (!blocks.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+                    return 0;
+                }
+            } catch (InterruptedException e) {
+                return 0;
+            }
+            if (error != 0) {
+                return error;
+            }
+            for (int i = 0; i < length; i++) {
+                buffer[offset + i] = next++;
+            }
+            return length;
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+    }
+
+    private static class RecordingConsumer implements AudioCaptureHub.Consumer {
+        private final List<Short> samples = new ArrayList<>();
+        final Semaphore errors = new Semaphore(0);
+        volatile int sampleRate;
+
+        @Override
+        public synchronized void onAudio(short[] pcm, int length, int sampleRate) {
+            this.sampleRate = sampleRate;
+            for (int i = 0; i < length; i++) {
+                samples.add(pcm[i]);
+            }
+            notifyAll();
+        }
+
+        @Override
+        public void onCaptureError(String error) {
+            errors.release();
+        }
+
+        synchronized List<Short> samples() {
+            return new ArrayList<>(samples);
+        }
+
+        synchronized void awaitSamples(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (samples.size() < count && System.currentTimeMillis() < deadline) {
+                wait(10);
+            }
+            assertEquals(count, samples.size());
+        }
+    }
+}
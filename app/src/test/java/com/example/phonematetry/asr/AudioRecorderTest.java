@@ -0,0 +1,219 @@
+package com.example.phonematetry.asr;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * The recorder on fake capture devices: after a device error the recording ends at the last
+ * sample written and is handed over at once on stopRecording(), an armed recorder gets a new
+ * device or reports that it cannot, and a new capture session at the native rate does not carry
+ * over resampler state from the last one.
+ */
+public class AudioRecorderTest {
+    private static final int RATE = 16000;
+    private static final int BLOCK = 160;
+    private static final int BLOCKS_BEFORE_ERROR = 50;
+    private static final int NATIVE_RATE = 48000;
+
+    private final CountDownLatch error = new CountDownLatch(1);
+    private RecordedAudio recording;
+    private AudioRecorder recorder;
+
+    @Before
+    public void setUp() {
+        recorder = newRecorder(new AudioCaptureHub(RATE, rate -> new FailingDevice()));
+    }
+
+    private AudioRecorder newRecorder(AudioCaptureHub hub) {
+        return new AudioRecorder(new AudioRecorder.AudioRecordingListener() {
+            @Override
+            public void onRecordingStarted() {
+            }
+
+            @Override
+            public void onRecordingFinished(RecordedAudio finished) {
+                recording = finished;
+            }
+
+            @Override
+            public void onRecordingError(String message) {
+                error.countDown();
+            }
+
+            @Override
+            public void onSilenceDetected() {
+            }
+
+            @Override
+            public void onSoundDetected() {
+            }
+        }, hub);
+    }
+
+    @After
+    public void tearDown() {
+        if (recording != null) {
+            recording.release();
+        }
+        recorder.release();
+    }
+
+    @Test
+    public void captureError_endsRecordingAtLastSample() throws Exception {
+        assertTrue(recorder.startRecording());
+        assertTrue(error.await(5, TimeUnit.SECONDS));
+
+        long start = System.nanoTime();
+        recorder.stopRecording();
+        long stopMs = (System.nanoTime() - start) / 1000000;
+
+        // No waiting for a block that never comes
+        assertTrue("stopRecording() took " + stopMs + " ms", stopMs < 500);
+        assertNotNull(recording);
+        assertEquals(BLOCKS_BEFORE_ERROR * BLOCK, recording.getFrameCount());
+        float[] samples = recording.toFloatArray();
+        for (int i = 0; i < samples.length; i++) {
+            assertEquals("sample " + i, (short) i / 32768.0f, samples[i], 0.0f);
+        }
+        assertEquals(BLOCKS_BEFORE_ERROR * BLOCK, recorder.getRecordingEnd());
+    }
+
+    @Test
+    public void armed_deviceErrorOpensNewDevice() throws Exception {
+        AtomicInteger opened = new AtomicInteger();
+        recorder.release();
+        recorder = newRecorder(new AudioCaptureHub(RATE, rate -> {
+            opened.incrementAndGet();
+            return new FailingDevice();
+        }));
+
+        assertTrue(recorder.arm());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (opened.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(opened.get() >= 2);
+        assertTrue(recorder.isArmed());
+        assertEquals(1, error.getCount());
+    }
+
+    @Test
+    public void armed_deviceFailingAtOnceDisarmsAndReports() throws Exception {
+        recorder.release();
+        recorder = newRecorder(new AudioCaptureHub(RATE, rate -> new DeadDevice()));
+
+        assertTrue(recorder.arm());
+        assertTrue(error.await(5, TimeUnit.SECONDS));
+        assertFalse(recorder.isArmed());
+    }
+
+    @Test
+    public void newCaptureSession_startsWithFreshResampler() throws Exception {
+        // A loud session, then a silent one on a new device
+        short[] level = {10000};
+        recorder.release();
+        recorder = newRecorder(
+                new AudioCaptureHub(NATIVE_RATE, rate -> new ConstantDevice(level[0])));
+
+        assertTrue(recorder.startRecording());
+        Thread.sleep(100);
+        recorder.stopRecording();
+        assertTrue(recording.getFrameCount() > 0);
+        recording.release();
+        recording = null;
+
+        level[0] = 0;
+        assertTrue(recorder.startRecording());
+        Thread.sleep(100);
+        recorder.stopRecording();
+        assertTrue(recording.getFrameCount() > 0);
+        for (float sample : recording.toFloatArray()) {
+            assertEquals(0.0f, sample, 0.0f);
+        }
+    }
+
+    // Delivers 10 ms blocks of one value at the native rate
+    private static class ConstantDevice implements AudioCaptureHub.Device {
+        private final short value;
+
+        ConstantDevice(short value) {
+            this.value = value;
+        }
+
+        @Override
+        public int getReadSize() {
+            return NATIVE_RATE / 100;
+        }
+
+        @Override
+        public int read(short[] buffer, int offset, int length) {
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                return 0;
+            }
+            Arrays.fill(buffer, offset, offset + length, value);
+            return length;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    // Fails on the first read
+    private static class DeadDevice implements AudioCaptureHub.Device {
+        @Override
+        public int getReadSize() {
+            return BLOCK;
+        }
+
+        @Override
+        public int read(short[] buffer, int offset, int length) {
+            return -1;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    // Delivers BLOCKS_BEFORE_ERROR blocks of consecutive sample values, then fails
+    private static class FailingDevice implements AudioCaptureHub.Device {
+        private int blocks = 0;
+        private short next = 0;
+
+        @Override
+        public int getReadSize() {
+            return BLOCK;
+        }
+
+        @Override
+        public int read(short[] buffer, int offset, int length) {
+            if (blocks++ == BLOCKS_BEFORE_ERROR) {
+                return -1;
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                return 0;
+            }
+            for (int i = 0; i < length; i++) {
+                buffer[offset + i] = next++;
+            }
+            return length;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.phonematetry.asr;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The endpointer on synthetic 20 ms frames of constant level: when an utterance starts, when
+ * trailing silence ends it, and when a recording without speech times out.
+ */
+public class EndpointerTest {
+    private static final int RATE = 16000;
+    private static final int FRAME_MS = 20;
+    private static final int FRAME_SAMPLES = RATE * FRAME_MS / 1000;
+    // About -70 dB and -20 dB relative to full scale
+    private static final short QUIET = 10;
+    private static final short LOUD = 3000;
+
+    // Frames of speech before it counts as an utterance, MIN_SPEECH_MS
+    private static final int START_FRAMES = 300 / FRAME_MS;
+    // Trailing frames that end an utterance with the default timeout, HANGOVER_MS plus 800 ms
+    private static final int END_FRAMES = (200 + 800) / FRAME_MS;
+    // Frames without an utterance before giving up, NO_SPEECH_TIMEOUT_MS
+    private static final int NO_SPEECH_FRAMES = 8000 / FRAME_MS;
+
+    private Endpointer endpointer;
+
+    @Before
+    public void setUp() {
+        endpointer = new Endpointer(RATE);
+    }
+
+    @Test
+    public void speechStarted_afterMinimumSpeech() {
+        assertNoEvent(QUIET, 50);
+        assertNoEvent(LOUD, START_FRAMES - 1);
+        assertEquals(Endpointer.SPEECH_STARTED, frame(LOUD));
+        assertNoEvent(LOUD, 20);
+    }
+
+    @Test
+    public void shortNoise_doesNotStartSpeech() {
+        assertNoEvent(QUIET, 50);
+        assertNoEvent(LOUD, 5);
+        assertNoEvent(QUIET, 100);
+    }
+
+    @Test
+    public void endOfSpeech_afterHangoverAndTrailingSilence() {
+        startUtterance();
+        assertNoEvent(QUIET, END_FRAMES - 1);
+        assertEquals(Endpointer.END_OF_SPEECH, frame(QUIET));
+        // Nothing is reported after the end
+        assertNoEvent(LOUD, 50);
+        assertNoEvent(QUIET, NO_SPEECH_FRAMES);
+    }
+
+    @Test
+    public void pauseShorterThanTimeout_keepsUtteranceGoing() {
+        startUtterance();
+        assertNoEvent(QUIET, END_FRAMES - 1);
+        assertNoEvent(LOUD, 5);
+        // The timeout starts over from the last speech frame
+        assertNoEvent(QUIET, END_FRAMES - 1);
+        assertEquals(Endpointer.END_OF_SPEECH, frame(QUIET));
+    }
+
+    @Test
+    public void noSpeech_afterTimeout() {
+        assertNoEvent(QUIET, NO_SPEECH_FRAMES - 1);
+        assertEquals(Endpointer.NO_SPEECH, frame(QUIET));
+        assertNoEvent(LOUD, 50);
+    }
+
+    @Test
+    public void noSpeech_notAfterUtteranceStarted() {
+        startUtterance();
+        // Speech keeps going past the no-speech timeout
+        assertNoEvent(LOUD, NO_SPEECH_FRAMES);
+        assertNoEvent(QUIET, END_FRAMES - 1);
+        assertEquals(Endpointer.END_OF_SPEECH, frame(QUIET));
+    }
+
+    @Test
+    public void setTrailingSilenceMs_changesEndOfSpeech() {
+        endpointer.setTrailingSilenceMs(300);
+        assertEquals(300, endpointer.getTrailingSilenceMs());
+        startUtterance();
+        assertNoEvent(QUIET, (200 + 300) / FRAME_MS - 1);
+        assertEquals(Endpointer.END_OF_SPEECH, frame(QUIET));
+
+        // A longer timeout set for the next utterance applies after a reset
+        endpointer.setTrailingSilenceMs(2000);
+        endpointer.reset();
+        startUtterance();
+        assertNoEvent(QUIET, (200 + 2000) / FRAME_MS - 1);
+        assertEquals(Endpointer.END_OF_SPEECH, frame(QUIET));
+    }
+
+    @Test
+    public void setTrailingSilenceMs_atLeastOneFrame() {
+        endpointer.setTrailingSilenceMs(0);
+        assertEquals(FRAME_MS, endpointer.getTrailingSilenceMs());
+    }
+
+    @Test
+    public void process_eventInsideLargerBlock() {
+        // Half a second of silence and then speech in one block; the start is still reported
+        short[] pcm = new short[(25 + START_FRAMES) * FRAME_SAMPLES];
+        fill(pcm, 0, 25 * FRAME_SAMPLES, QUIET);
+        fill(pcm, 25 * FRAME_SAMPLES, pcm.length, LOUD);
+        assertEquals(Endpointer.SPEECH_STARTED, endpointer.process(pcm, 0, pcm.length));
+    }
+
+    @Test
+    public void reset_startsOver() {
+        assertNoEvent(QUIET, NO_SPEECH_FRAMES - 1);
+        endpointer.reset();
+        assertNoEvent(QUIET, NO_SPEECH_FRAMES - 1);
+        assertEquals(Endpointer.NO_SPEECH, frame(QUIET));
+    }
+
+    // Quiet lead-in for the noise floor, then exactly enough speech to start the utterance
+    private void startUtterance() {
+        assertNoEvent(QUIET, 50);
+        assertNoEvent(LOUD, START_FRAMES - 1);
+        assertEquals(Endpointer.SPEECH_STARTED, frame(LOUD));
+    }
+
+    private void assertNoEvent(short level, int frames) {
+        for (int i = 0; i < frames; i++) {
+            assertEquals("frame " + i, Endpointer.NONE, frame(level));
+        }
+    }
+
+    // One frame of a square wave at level, so every sample has the same energy
+    private int frame(short level) {
+        short[] pcm = new short[FRAME_SAMPLES];
+        fill(pcm, 0, pcm.length, level);
+        return endpointer.process(pcm, 0, pcm.length);
+    }
+
+    private static void fill(short[] pcm, int from, int to, short level) {
+        for (int i = from; i < to; i++) {
+            pcm[i] = (short) (i % 2 == 0 ? level : -level);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.phonematetry.asr;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static com.example.phonematetry.asr.PcmTestSamples.*;
+import static org.junit.Assert.*;
+
+/**
+ * Read-back of recorded PCM from the heap blocks, from the spill file, and across the memory
+ * limit between the two.
+ */
+public class PcmBufferTest {
+    // PcmBuffer.BLOCK_SAMPLES
+    private static final int BLOCK = 16384;
+
+    private File directory;
+    private PcmBuffer buffer;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("pcm").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        if (buffer != null) {
+            buffer.release();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void inMemory_readsBackAcrossBlocks() throws IOException {
+        buffer = new PcmBuffer();
+        appendSamples(buffer::append, 0, 3 * BLOCK + 123, 1000);
+        assertEquals(3 * BLOCK + 123, buffer.size());
+        assertFalse(buffer.isSpilled());
+        assertSamples(buffer.toFloatArray(), 0, 3 * BLOCK + 123, 0);
+
+        float[] dest = new float[300];
+        assertEquals(300, buffer.read(BLOCK - 150, dest, 0, dest.length));
+        assertSamples(dest, 0, 300, BLOCK - 150);
+    }
+
+    @Test
+    public void withoutDirectory_neverSpills() throws IOException {
+        buffer = new PcmBuffer(BLOCK, null);
+        appendSamples(buffer::append, 0, 2 * BLOCK, 5000);
+        assertFalse(buffer.isSpilled());
+        assertSamples(buffer.toFloatArray(), 0, 2 * BLOCK, 0);
+    }
+
+    @Test
+    public void memoryLimit_isRoundedUpToWholeBlocks() throws IOException {
+        buffer = new PcmBuffer(1000, directory);
+        appendSamples(buffer::append, 0, BLOCK, 1000);
+        assertFalse(buffer.isSpilled());
+        appendSamples(buffer::append, BLOCK, 1, 1);
+        assertTrue(buffer.isSpilled());
+    }
+
+    @Test
+    public void spilled_readsBackAcrossMemoryLimit() throws IOException {
+        buffer = new PcmBuffer(BLOCK, directory);
+        // One append that crosses the limit, then more than a read scratch block on disk
+        appendSamples(buffer::append, 0, BLOCK + 10000, 7000);
+        assertEquals(BLOCK + 10000, buffer.size());
+        assertTrue(buffer.isSpilled());
+        assertSamples(buffer.toFloatArray(), 0, BLOCK + 10000, 0);
+
+        float[] dest = new float[6000];
+        assertEquals(6000, buffer.read(BLOCK - 1000, dest, 0, dest.length));
+        assertSamples(dest, 0, 6000, BLOCK - 1000);
+
+        // Reads are clamped to the end
+        assertEquals(500, buffer.read(BLOCK + 9500, dest, 10, dest.length - 10));
+        assertSamples(dest, 10, 500, BLOCK + 9500);
+        assertEquals(0, buffer.read(BLOCK + 10000, dest, 0, dest.length));
+    }
+
+    @Test
+    public void clear_reusesStorageForNewContents() throws IOException {
+        buffer = new PcmBuffer(BLOCK, directory);
+        appendSamples(buffer::append, 0, 2 * BLOCK, 3000);
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertFalse(buffer.isSpilled());
+
+        appendSamples(buffer::append, 5000, BLOCK + 100, 3000);
+        assertTrue(buffer.isSpilled());
+        assertSamples(buffer.toFloatArray(), 0, BLOCK + 100, 5000);
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.phonematetry.asr;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.example.phonematetry.asr.PcmTestSamples.*;
+import static org.junit.Assert.*;
+
+/**
+ * The lock-free PCM ring: sequence numbering across wrap-around, overrun accounting for readers
+ * that fall behind, and a multi-threaded stress run in which every sample a reader returns must
+ * be the one written at its sequence number, and every sample must be either returned or
+ * counted as lost.
+ */
+public class PcmRingBufferTest {
+    private static final int STRESS_CAPACITY = 4096;
+    private static final long STRESS_SAMPLES = 5_000_000L;
+    private static final int STRESS_BLOCK = 1000;
+
+    @Test
+    public void capacity_isRoundedUpToPowerOfTwo() {
+        assertEquals(1024, new PcmRingBuffer(1000).getCapacity());
+        assertEquals(1024, new PcmRingBuffer(1024).getCapacity());
+        assertEquals(2, new PcmRingBuffer(1).getCapacity());
+    }
+
+    @Test
+    public void read_returnsSamplesInOrderAcrossWrapAround() {
+        PcmRingBuffer ring = new PcmRingBuffer(16);
+        PcmRingBuffer.Reader reader = ring.newReader();
+        short[] dest = new short[16];
+        long next = 0;
+        for (int round = 0; round < 20; round++) {
+            // Blocks of 5 keep moving the write position across the end of the array
+            ring.write(samples(next, 5), 0, 5);
+            assertEquals(5, reader.available());
+            assertEquals(5, reader.read(dest, 0, dest.length));
+            assertSamples(dest, 0, 5, next);
+            next += 5;
+        }
+        assertEquals(next, ring.getWriteSequence());
+        assertEquals(next, reader.getPosition());
+        assertEquals(0, reader.read(dest, 0, dest.length));
+        assertEquals(0, reader.getOverruns());
+        assertEquals(0, reader.getLostSamples());
+    }
+
+    @Test
+    public void read_honoursMaxSamplesAndOffset() {
+        PcmRingBuffer ring = new PcmRingBuffer(16);
+        PcmRingBuffer.Reader reader = ring.newReader();
+        ring.write(samples(0, 10), 0, 10);
+        short[] dest = new short[8];
+        assertEquals(4, reader.read(dest, 3, 4));
+        assertEquals(0, dest[2]);
+        assertEquals(sample(0), dest[3]);
+        assertEquals(sample(3), dest[6]);
+        assertEquals(0, dest[7]);
+        assertEquals(6, reader.available());
+    }
+
+    @Test
+    public void overrun_skipsOverwrittenSamplesAndCountsThem() {
+        PcmRingBuffer ring = new PcmRingBuffer(16);
+        PcmRingBuffer.Reader reader = ring.newReader();
+        ring.write(samples(0, 40), 0, 40);
+        assertEquals(40, reader.available());
+
+        short[] dest = new short[64];
+        int count = reader.read(dest, 0, dest.length);
+        assertEquals(16, count);
+        assertSamples(dest, 0, count, 24);
+        assertEquals(24, reader.getLostSamples());
+        assertEquals(1, reader.getOverruns());
+
+        // Keeping up afterwards loses nothing more
+        ring.write(samples(40, 10), 0, 10);
+        assertEquals(10, reader.read(dest, 0, dest.length));
+        assertSamples(dest, 0, 10, 40);
+        assertEquals(24, reader.getLostSamples());
+        assertEquals(1, reader.getOverruns());
+    }
+
+    @Test
+    public void overrun_eachFallBehindCountsOnce() {
+        PcmRingBuffer ring = new PcmRingBuffer(16);
+        PcmRingBuffer.Reader reader = ring.newReader();
+        short[] dest = new short[64];
+        long next = 0;
+        for (int i = 0; i < 3; i++) {
+            ring.write(samples(next, 20), 0, 20);
+            next += 20;
+            assertEquals(16, reader.read(dest, 0, dest.length));
+            assertSamples(dest, 0, 16, next - 16);
+        }
+        assertEquals(12, reader.getLostSamples());
+        assertEquals(3, reader.getOverruns());
+    }
+
+    @Test
+    public void newReader_atSequenceNoLongerInRingStartsAtOldest() {
+        PcmRingBuffer ring = new PcmRingBuffer(16);
+        ring.write(samples(0, 30), 0, 30);
+        PcmRingBuffer.Reader reader = ring.newReader(4);
+        short[] dest = new short[32];
+        assertEquals(16, reader.read(dest, 0, dest.length));
+        assertSamples(dest, 0, 16, 14);
+        assertEquals(10, reader.getLostSamples());
+
+        PcmRingBuffer.Reader recent = ring.newReader(20);
+        assertEquals(10, recent.read(dest, 0, dest.length));
+        assertSamples(dest, 0, 10, 20);
+        assertEquals(0, recent.getLostSamples());
+    }
+
+    @Test
+    public void readers_areIndependent() {
+        PcmRingBuffer ring = new PcmRingBuffer(16);
+        PcmRingBuffer.Reader fast = ring.newReader();
+        PcmRingBuffer.Reader slow = ring.newReader();
+        short[] dest = new short[16];
+        for (int i = 0; i < 4; i++) {
+            ring.write(samples(i * 8L, 8), 0, 8);
+            assertEquals(8, fast.read(dest, 0, dest.length));
+        }
+        assertEquals(16, slow.read(dest, 0, dest.length));
+        assertEquals(0, fast.getLostSamples());
+        assertEquals(16, slow.getLostSamples());
+    }
+
+    @Test
+    public void skipToEnd_dropsUnreadSamplesWithoutCountingThem() {
+        PcmRingBuffer ring = new PcmRingBuffer(16);
+        PcmRingBuffer.Reader reader = ring.newReader();
+        ring.write(samples(0, 40), 0, 40);
+        reader.skipToEnd();
+        assertEquals(0, reader.available());
+        assertEquals(40, reader.getPosition());
+        assertEquals(0, reader.getLostSamples());
+        assertEquals(0, reader.getOverruns());
+    }
+
+    @Test
+    public void stress_concurrentReadersSeeExactSamplesOrCountLosses() throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(STRESS_CAPACITY);
+        // A reader that keeps up, one that is slowed down by work between reads, and one that
+        // reads in blocks close to the ring size
+        int[] readSizes = {700, 700, 3000};
+        int[] workPerRead = {0, 2000, 0};
+        PcmRingBuffer.Reader[] readers = new PcmRingBuffer.Reader[readSizes.length];
+        long[] received = new long[readSizes.length];
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[readSizes.length];
+
+        for (int r = 0; r < readers.length; r++) {
+            int id = r;
+            readers[r] = ring.newReader();
+            threads[r] = new Thread(() -> {
+                PcmRingBuffer.Reader reader = readers[id];
+                short[] dest = new short[readSizes[id]];
+                double sink = 0.0;
+                while (true) {
+                    boolean finished = done.get();
+                    int count = reader.read(dest, 0, dest.length);
+                    if (count > 0) {
+                        long first = reader.getPosition() - count;
+                        for (int i = 0; i < count; i++) {
+                            if (dest[i] != sample(first + i)) {
+                                failure.compareAndSet(null,
+                                        "reader " + id + " got a wrong sample at " + (first + i));
+                            }
+                        }
+                        received[id] += count;
+                        for (int k = 0; k < workPerRead[id]; k++) {
+                            sink += Math.sin(k);
+                        }
+                    } else if (finished) {
+                        break;
+                    } else {
+                        Thread.yield();
+                    }
+                }
+                if (sink == 42.0) {
+                    System.out.println(sink);
+                }
+            }, "ring-reader-" + r);
+            threads[r].start();
+        }
+
+        long next = 0;
+        while (next < STRESS_SAMPLES) {
+            int count = (int) Math.min(STRESS_BLOCK, STRESS_SAMPLES - next);
+            ring.write(samples(next, count), 0, count);
+            next += count;
+        }
+        done.set(true);
+        for (Thread thread : threads) {
+            thread.join(60000);
+            assertFalse(thread.isAlive());
+        }
+
+        assertNull(failure.get(), failure.get());
+        for (int r = 0; r < readers.length; r++) {
+            assertEquals("reader " + r, STRESS_SAMPLES, received[r] + readers[r].getLostSamples());
+            assertEquals(STRESS_SAMPLES, readers[r].getPosition());
+            assertEquals(readers[r].getLostSamples() > 0, readers[r].getOverruns() > 0);
+        }
+    }
+}
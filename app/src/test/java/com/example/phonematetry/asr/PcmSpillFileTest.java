@@ -0,0 +1,87 @@
+package com.example.phonematetry.asr;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static com.example.phonematetry.asr.PcmTestSamples.*;
+import static org.junit.Assert.*;
+
+/**
+ * Read-back of the memory-mapped spill file, in particular across the boundaries between its
+ * mapped regions, and reuse of the regions after clear().
+ */
+public class PcmSpillFileTest {
+    // PcmSpillFile.REGION_SAMPLES
+    private static final int REGION = 1 << 19;
+
+    private File directory;
+    private PcmSpillFile spill;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("spill").toFile();
+        spill = new PcmSpillFile(directory);
+    }
+
+    @After
+    public void tearDown() {
+        spill.release();
+        directory.delete();
+    }
+
+    @Test
+    public void file_isUnlinkedRightAway() {
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void read_acrossRegionBoundaries() throws IOException {
+        // Odd block sizes, so appends straddle the boundaries between the first three regions
+        appendSamples(spill::append, 0, 2 * REGION + 5000, 4999);
+        assertEquals(2 * REGION + 5000, spill.size());
+
+        for (long start : new long[] {0, REGION - 1, REGION - 100, 2 * REGION - 3000, 2 * REGION}) {
+            short[] dest = new short[4000];
+            assertEquals(4000, spill.read(start, dest, 0, dest.length));
+            assertSamples(dest, 0, 4000, start);
+        }
+    }
+
+    @Test
+    public void read_moreThanARegionAtOnce() throws IOException {
+        appendSamples(spill::append, 0, REGION + 10, REGION + 10);
+        short[] dest = new short[REGION + 20];
+        assertEquals(REGION + 10, spill.read(0, dest, 5, REGION + 10));
+        assertSamples(dest, 5, REGION + 10, 0);
+    }
+
+    @Test
+    public void read_isClampedToSize() throws IOException {
+        appendSamples(spill::append, 0, 100, 100);
+        short[] dest = new short[50];
+        assertEquals(20, spill.read(80, dest, 0, dest.length));
+        assertSamples(dest, 0, 20, 80);
+        assertEquals(0, spill.read(100, dest, 0, dest.length));
+        assertEquals(0, spill.read(500, dest, 0, dest.length));
+    }
+
+    @Test
+    public void clear_reusesTheFileForNewContents() throws IOException {
+        appendSamples(spill::append, 0, REGION + 100, 1000);
+        spill.clear();
+        assertEquals(0, spill.size());
+
+        // Different values at the same positions, so stale contents would show
+        appendSamples(spill::append, 1000, REGION + 50, 777);
+        assertEquals(REGION + 50, spill.size());
+        short[] dest = new short[100];
+        assertEquals(100, spill.read(REGION - 50, dest, 0, dest.length));
+        assertSamples(dest, 0, 100, 1000 + REGION - 50);
+        assertEquals(0, spill.read(REGION + 50, dest, 0, dest.length));
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.phonematetry.asr;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Numbered PCM for the buffer tests: sample n has the value n * 7, so consecutive samples differ
+ * and so do samples a ring, block or region length apart, and a read from the wrong position
+ * shows.
+ */
+final class PcmTestSamples {
+    // Where appendSamples() writes to, e.g. PcmBuffer::append or PcmSpillFile::append
+    interface Sink {
+        void append(short[] pcm, int offset, int length) throws IOException;
+    }
+
+    private PcmTestSamples() {
+    }
+
+    static short sample(long number) {
+        return (short) (number * 7);
+    }
+
+    static short[] samples(long first, int count) {
+        short[] samples = new short[count];
+        for (int i = 0; i < count; i++) {
+            samples[i] = sample(first + i);
+        }
+        return samples;
+    }
+
+    // Appends count samples numbered from first, in blocks of blockSize
+    static void appendSamples(Sink sink, long first, int count, int blockSize) throws IOException {
+        short[] block = new short[blockSize];
+        for (int done = 0; done < count; ) {
+            int length = Math.min(blockSize, count - done);
+            for (int i = 0; i < length; i++) {
+                block[i] = sample(first + done + i);
+            }
+            sink.append(block, 0, length);
+            done += length;
+        }
+    }
+
+    // samples[offset, offset + count) holds the samples numbered from first
+    static void assertSamples(short[] samples, int offset, int count, long first) {
+        for (int i = 0; i < count; i++) {
+            assertEquals("sample " + (first + i), sample(first + i), samples[offset + i]);
+        }
+    }
+
+    // The same for samples read back as floats
+    static void assertSamples(float[] samples, int offset, int count, long first) {
+        for (int i = 0; i < count; i++) {
+            float expected = sample(first + i) / 32768.0f;
+            assertEquals("sample " + (first + i), expected, samples[offset + i], 0.0f);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.phonematetry.asr;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static com.example.phonematetry.asr.PcmTestSamples.*;
+import static org.junit.Assert.*;
+
+/**
+ * A finished recording read back as a stream in chunks, including its spilled part, and the
+ * hand-back of its storage on release().
+ */
+public class RecordedAudioTest {
+    private static final int RATE = 16000;
+    // One PcmBuffer block on the heap, the rest on disk
+    private static final int MEMORY_LIMIT = 16384;
+    private static final int LENGTH = 3 * RATE;
+
+    private File directory;
+    private AudioRecorder recorder;
+    private RecordedAudio recording;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("recording").toFile();
+        recorder = new AudioRecorder(null, new AudioCaptureHub(RATE));
+        PcmBuffer buffer = new PcmBuffer(MEMORY_LIMIT, directory);
+        short[] pcm = new short[LENGTH];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = sample(i);
+        }
+        buffer.append(pcm, 0, pcm.length);
+        recording = new RecordedAudio(buffer, recorder, RATE);
+    }
+
+    @After
+    public void tearDown() {
+        recording.release();
+        recorder.release();
+        directory.delete();
+    }
+
+    @Test
+    public void properties() {
+        assertEquals(RATE, recording.getSampleRate());
+        assertEquals(LENGTH, recording.getFrameCount());
+        assertEquals(3000, recording.getDurationMs());
+        assertTrue(recording.isSpilled());
+    }
+
+    @Test
+    public void read_inChunksReturnsEverySampleThenEnd() {
+        // A chunk size that does not divide the memory limit, so one chunk spans it
+        float[] chunk = new float[5000];
+        int total = 0;
+        int count;
+        while ((count = recording.read(chunk, 0, chunk.length)) > 0) {
+            for (int i = 0; i < count; i++) {
+                assertEquals("sample " + (total + i), sample(total + i) / 32768.0f, chunk[i], 0.0f);
+            }
+            total += count;
+            assertEquals(total, recording.getPosition());
+        }
+        assertEquals(-1, count);
+        assertEquals(LENGTH, total);
+    }
+
+    @Test
+    public void seek_isClampedAndMovesReads() {
+        recording.seek(MEMORY_LIMIT - 2);
+        float[] dest = new float[4];
+        assertEquals(4, recording.read(dest, 0, dest.length));
+        assertEquals(sample(MEMORY_LIMIT + 1) / 32768.0f, dest[3], 0.0f);
+
+        recording.seek(-5);
+        assertEquals(0, recording.getPosition());
+        recording.seek(LENGTH + 5);
+        assertEquals(LENGTH, recording.getPosition());
+        assertEquals(-1, recording.read(dest, 0, dest.length));
+    }
+
+    @Test
+    public void toFloatArray_matchesChunkedRead() {
+        float[] all = recording.toFloatArray();
+        assertEquals(LENGTH, all.length);
+        float[] dest = new float[all.length];
+        assertEquals(all.length, recording.read(dest, 0, dest.length));
+        assertArrayEquals(all, dest, 0.0f);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void read_afterReleaseFails() {
+        recording.release();
+        recording.read(new float[16], 0, 16);
+    }
+
+    @Test
+    public void release_twiceIsHarmless() {
+        recording.release();
+        recording.release();
+    }
+}
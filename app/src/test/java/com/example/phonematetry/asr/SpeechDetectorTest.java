@@ -0,0 +1,134 @@
+package com.example.phonematetry.asr;
+
+import com.example.phonematetry.utils.StreamingMelSpectrogram;
+import com.example.phonematetry.utils.WavReader;
+import com.example.phonematetry.utils.WhisperUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * The speech gate on raw log-mel frames from the streaming spectrogram: silence, noise, a
+ * noise burst, a steady tone, a tap and very quiet speech must not count as speech, and a real
+ * utterance must, also with moderate background noise.
+ */
+public class SpeechDetectorTest {
+    private static final String VOCAB_PATH = "src/main/assets/filters_vocab_en.bin";
+    private static final String SPEECH_PATH = "src/main/assets/jfk.wav";
+    private static final int RATE = WhisperUtil.WHISPER_SAMPLE_RATE;
+
+    private WhisperUtil whisperUtil;
+    private StreamingMelSpectrogram stream;
+    private SpeechDetector detector;
+
+    @Before
+    public void setUp() throws Exception {
+        whisperUtil = new WhisperUtil();
+        assertTrue(whisperUtil.loadFiltersAndVocab(false, VOCAB_PATH));
+        stream = whisperUtil.createStreamingMel();
+        detector = new SpeechDetector(WhisperUtil.WHISPER_N_MEL);
+    }
+
+    @After
+    public void tearDown() {
+        whisperUtil.release();
+    }
+
+    @Test
+    public void silence_isNotSpeech() {
+        assertFalse(hasSpeech(new float[2 * RATE]));
+    }
+
+    @Test
+    public void whiteNoise_isNotSpeech() {
+        assertFalse(hasSpeech(noise(2 * RATE, 0.1, 1)));
+    }
+
+    @Test
+    public void noiseBurst_isNotSpeech() {
+        // Hiss that comes and goes clears the noise floor; only its flat spectrum rejects it
+        float[] samples = noise(2 * RATE, 0.001, 5);
+        float[] burst = noise(RATE / 2, 0.1, 6);
+        System.arraycopy(burst, 0, samples, RATE / 2, burst.length);
+        assertFalse(hasSpeech(samples));
+    }
+
+    @Test
+    public void steadyTone_isNotSpeech() {
+        float[] samples = new float[2 * RATE];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (float) (0.3 * Math.sin(2 * Math.PI * 440 * i / RATE));
+        }
+        assertFalse(hasSpeech(samples));
+    }
+
+    @Test
+    public void tap_isNotSpeech() {
+        // 20 ms broadband click in an otherwise quiet recording
+        float[] samples = noise(2 * RATE, 0.001, 2);
+        float[] click = noise(RATE / 50, 0.5, 3);
+        System.arraycopy(click, 0, samples, RATE, click.length);
+        assertFalse(hasSpeech(samples));
+    }
+
+    @Test
+    public void tooQuietSpeech_isNotSpeech() throws Exception {
+        float[] samples = speech();
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] *= 1e-4f;
+        }
+        assertFalse(hasSpeech(samples));
+    }
+
+    @Test
+    public void speech_isSpeech() throws Exception {
+        assertTrue(hasSpeech(speech()));
+        assertTrue(detector.getVoicedFrames() > 100);
+    }
+
+    @Test
+    public void speechInNoise_isSpeech() throws Exception {
+        float[] samples = speech();
+        float[] background = noise(samples.length, 0.005, 4);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] += background[i];
+        }
+        assertTrue(hasSpeech(samples));
+    }
+
+    @Test
+    public void tooFewFrames_isNotSpeech() throws Exception {
+        // 100 ms of the utterance is shorter than MIN_SPEECH_FRAMES
+        float[] samples = speech();
+        float[] start = new float[RATE / 10];
+        System.arraycopy(samples, RATE, start, 0, start.length);
+        assertFalse(hasSpeech(start));
+    }
+
+    private boolean hasSpeech(float[] samples) {
+        stream.reset();
+        stream.append(samples, 0, samples.length);
+        return detector.hasSpeech(stream.getRawFrames(), WhisperUtil.WHISPER_MEL_LEN, stream.getReadyFrames());
+    }
+
+    private static float[] speech() throws Exception {
+        WavReader reader = WavReader.open(SPEECH_PATH);
+        float[] samples = new float[reader.getFrameCount()];
+        reader.read(samples, 0, samples.length);
+        return samples;
+    }
+
+    private static float[] noise(int length, double amplitude, long seed) {
+        Random random = new Random(seed);
+        float[] samples = new float[length];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (float) (amplitude * random.nextGaussian());
+        }
+        return samples;
+    }
+}
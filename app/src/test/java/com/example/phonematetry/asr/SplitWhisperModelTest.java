@@ -0,0 +1,185 @@
+package com.example.phonematetry.asr;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Repetition-loop detection and the greedy decoding loop of the split model, driven by a
+ * scripted decoder instead of an interpreter.
+ */
+public class SplitWhisperModelTest {
+    private static final int EOT = 50256;
+    private static final int NOT = 50362;
+    private static final int PROMPT_POSITION = 1;
+
+    @Test
+    public void loopLength_periodOne() {
+        int[] tokens = concat(new int[] {1, 2, 3}, repeat(new int[] {7}, 12));
+        // Everything after the first 7 goes
+        assertEquals(11, SplitWhisperModel.loopLength(tokens, tokens.length));
+    }
+
+    @Test
+    public void loopLength_periodTwo() {
+        int[] tokens = concat(new int[] {9}, repeat(new int[] {1, 2}, 6));
+        assertEquals(10, SplitWhisperModel.loopLength(tokens, tokens.length));
+    }
+
+    @Test
+    public void loopLength_longerPeriods() {
+        int[] period3 = concat(new int[] {9}, repeat(new int[] {1, 2, 3}, 4));
+        assertEquals(9, SplitWhisperModel.loopLength(period3, period3.length));
+
+        // From period 4 on, three repeats are enough
+        int[] period5 = concat(new int[] {9}, repeat(new int[] {1, 2, 3, 4, 5}, 3));
+        assertEquals(10, SplitWhisperModel.loopLength(period5, period5.length));
+
+        int[] period16 = repeat(sequence(100, 16), 3);
+        assertEquals(32, SplitWhisperModel.loopLength(period16, period16.length));
+    }
+
+    @Test
+    public void loopLength_periodAboveMaximumIsNotALoop() {
+        int[] tokens = repeat(sequence(100, 17), 3);
+        assertEquals(0, SplitWhisperModel.loopLength(tokens, tokens.length));
+    }
+
+    @Test
+    public void loopLength_tooFewRepeatsIsNotALoop() {
+        int[] period1 = concat(new int[] {9}, repeat(new int[] {7}, 11));
+        assertEquals(0, SplitWhisperModel.loopLength(period1, period1.length));
+
+        int[] period2 = concat(new int[] {9}, repeat(new int[] {1, 2}, 5));
+        assertEquals(0, SplitWhisperModel.loopLength(period2, period2.length));
+
+        int[] period5 = concat(new int[] {9}, repeat(new int[] {1, 2, 3, 4, 5}, 2));
+        assertEquals(0, SplitWhisperModel.loopLength(period5, period5.length));
+    }
+
+    @Test
+    public void loopLength_brokenRepeatIsNotALoop() {
+        int[] tokens = repeat(new int[] {1, 2, 3}, 4);
+        tokens[7] = 4;
+        assertEquals(0, SplitWhisperModel.loopLength(tokens, tokens.length));
+    }
+
+    @Test
+    public void loopLength_onlyAtTheEnd() {
+        int[] tokens = concat(repeat(new int[] {7}, 12), new int[] {8});
+        assertEquals(0, SplitWhisperModel.loopLength(tokens, tokens.length));
+    }
+
+    @Test
+    public void loopLength_countShorterThanSpan() {
+        int[] tokens = repeat(new int[] {7}, 20);
+        assertEquals(0, SplitWhisperModel.loopLength(tokens, 0));
+        assertEquals(0, SplitWhisperModel.loopLength(tokens, 11));
+        assertEquals(11, SplitWhisperModel.loopLength(tokens, 12));
+    }
+
+    @Test
+    public void loopLength_ignoresTokensPastCount() {
+        int[] tokens = concat(sequence(1, 4), repeat(new int[] {7}, 12));
+        assertEquals(0, SplitWhisperModel.loopLength(tokens, 10));
+    }
+
+    @Test
+    public void greedyDecode_stopsAtEot() {
+        ScriptedDecoder decoder = new ScriptedDecoder(11, 12, 13, EOT);
+        int[] out = new int[SplitWhisperModel.MAX_TOKENS];
+        int count = SplitWhisperModel.greedyDecode(decoder, NOT, PROMPT_POSITION, EOT, out);
+
+        assertArrayEquals(new int[] {11, 12, 13}, Arrays.copyOf(out, count));
+        // Prompt token and every emitted token are fed once, at consecutive positions
+        assertEquals(Arrays.asList(NOT, 11, 12, 13), decoder.fed);
+        assertEquals(Arrays.asList(1, 2, 3, 4), decoder.positions);
+    }
+
+    @Test
+    public void greedyDecode_immediateEot() {
+        ScriptedDecoder decoder = new ScriptedDecoder(EOT);
+        int count = SplitWhisperModel.greedyDecode(decoder, NOT, PROMPT_POSITION, EOT, new int[8]);
+        assertEquals(0, count);
+        assertEquals(1, decoder.fed.size());
+    }
+
+    @Test
+    public void greedyDecode_stopsAtOutputLength() {
+        ScriptedDecoder decoder = new ScriptedDecoder(sequence(1, 10));
+        int[] out = new int[4];
+        int count = SplitWhisperModel.greedyDecode(decoder, NOT, PROMPT_POSITION, EOT, out);
+
+        assertArrayEquals(new int[] {1, 2, 3, 4}, out);
+        assertEquals(4, count);
+        // The last token is not fed back, its successor would be dropped anyway
+        assertEquals(Arrays.asList(NOT, 1, 2, 3), decoder.fed);
+    }
+
+    @Test
+    public void greedyDecode_stopsAtMaxTokens() {
+        ScriptedDecoder decoder = new ScriptedDecoder(sequence(1, 2 * SplitWhisperModel.MAX_TOKENS));
+        int[] out = new int[2 * SplitWhisperModel.MAX_TOKENS];
+        int count = SplitWhisperModel.greedyDecode(decoder, NOT, PROMPT_POSITION, EOT, out);
+
+        assertEquals(SplitWhisperModel.MAX_TOKENS, count);
+        assertEquals(SplitWhisperModel.MAX_TOKENS, decoder.fed.size());
+    }
+
+    @Test
+    public void greedyDecode_cutsOffRepetitionLoop() {
+        int[] script = concat(new int[] {20, 21}, repeat(new int[] {500, 501, 502}, 10));
+        ScriptedDecoder decoder = new ScriptedDecoder(script);
+        int[] out = new int[SplitWhisperModel.MAX_TOKENS];
+        int count = SplitWhisperModel.greedyDecode(decoder, NOT, PROMPT_POSITION, EOT, out);
+
+        // One occurrence of the loop survives; decoding stops once four repeats are seen
+        assertArrayEquals(new int[] {20, 21, 500, 501, 502}, Arrays.copyOf(out, count));
+        assertEquals(2 + 12, decoder.fed.size());
+    }
+
+    // Returns the scripted tokens in order, then EOT, and records what it was fed
+    private static class ScriptedDecoder implements SplitWhisperModel.TokenStep {
+        private final int[] script;
+        private int next = 0;
+        final List<Integer> fed = new ArrayList<>();
+        final List<Integer> positions = new ArrayList<>();
+
+        ScriptedDecoder(int... script) {
+            this.script = script;
+        }
+
+        @Override
+        public int next(int token, int position) {
+            fed.add(token);
+            positions.add(position);
+            return next < script.length ? script[next++] : EOT;
+        }
+    }
+
+    private static int[] sequence(int first, int length) {
+        int[] tokens = new int[length];
+        for (int i = 0; i < length; i++) {
+            tokens[i] = first + i;
+        }
+        return tokens;
+    }
+
+    private static int[] repeat(int[] block, int times) {
+        int[] tokens = new int[block.length * times];
+        for (int i = 0; i < times; i++) {
+            System.arraycopy(block, 0, tokens, i * block.length, block.length);
+        }
+        return tokens;
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        int[] tokens = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, tokens, a.length, b.length);
+        return tokens;
+    }
+}
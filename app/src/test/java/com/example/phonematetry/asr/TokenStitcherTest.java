@@ -0,0 +1,134 @@
+package com.example.phonematetry.asr;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Joining the token streams of overlapping windows: the seam is found where the end of the old
+ * stream and the start of the new window repeat each other, and nowhere else.
+ */
+public class TokenStitcherTest {
+    private TokenStitcher stitcher;
+
+    @Before
+    public void setUp() {
+        stitcher = new TokenStitcher();
+    }
+
+    @Test
+    public void firstWindow_isTakenWhole() {
+        assertEquals(0, append(sequence(1, 10)));
+        assertStitched(sequence(1, 10));
+    }
+
+    @Test
+    public void exactOverlap_isJoinedOnce() {
+        append(sequence(1, 30));
+        // The last five tokens of the old window start the new one
+        assertEquals(5, append(sequence(26, 15)));
+        assertStitched(sequence(1, 40));
+    }
+
+    @Test
+    public void overlap_newWindowReplacesTail() {
+        append(concat(sequence(1, 20), new int[] {50, 51, 52, 53, 99}));
+        // The new window heard the last word differently; its version wins from the run on
+        assertEquals(4, append(new int[] {51, 52, 53, 54, 55}));
+        assertStitched(concat(sequence(1, 20), new int[] {50, 51, 52, 53, 54, 55}));
+    }
+
+    @Test
+    public void noOverlap_concatenates() {
+        append(sequence(1, 10));
+        assertEquals(0, append(sequence(20, 6)));
+        assertStitched(concat(sequence(1, 10), sequence(20, 6)));
+    }
+
+    @Test
+    public void twoTokenMatch_isNotASeam() {
+        append(sequence(1, 10));
+        assertEquals(0, append(new int[] {9, 10, 30}));
+        assertStitched(concat(sequence(1, 10), new int[] {9, 10, 30}));
+    }
+
+    @Test
+    public void repeatedPhraseAwayFromSeam_isNotASeam() {
+        // The phrase 10 11 12 occurs 25 tokens before the end of the old stream, further back
+        // than the overlap reaches
+        int[] old = concat(concat(sequence(100, 5), new int[] {10, 11, 12}), sequence(204, 22));
+        append(old);
+        int[] window = {10, 11, 12, 300, 301};
+        assertEquals(0, append(window));
+        assertStitched(concat(old, window));
+    }
+
+    @Test
+    public void matchLateInNewWindow_isNotASeam() {
+        append(sequence(1, 10));
+        // Twenty new tokens before the repeat: more than the overlap can hold
+        int[] window = concat(sequence(60, 20), new int[] {8, 9, 10});
+        assertEquals(0, append(window));
+        assertStitched(concat(sequence(1, 10), window));
+    }
+
+    @Test
+    public void equallyLongRuns_nearestSeamWins() {
+        int[] old = concat(sequence(1, 5), new int[] {7, 8, 9, 40, 41, 7, 8, 9});
+        append(old);
+        assertEquals(3, append(new int[] {7, 8, 9, 50}));
+        assertStitched(concat(sequence(1, 5), new int[] {7, 8, 9, 40, 41, 7, 8, 9, 50}));
+    }
+
+    @Test
+    public void emptyWindow_changesNothing() {
+        assertEquals(0, append(new int[0]));
+        assertEquals(0, stitcher.size());
+
+        append(sequence(1, 10));
+        assertEquals(0, append(new int[0]));
+        assertStitched(sequence(1, 10));
+    }
+
+    @Test
+    public void reset_startsOver() {
+        append(sequence(1, 10));
+        stitcher.reset();
+        assertEquals(0, append(sequence(8, 5)));
+        assertStitched(sequence(8, 5));
+    }
+
+    @Test
+    public void manyWindows_growTheBuffer() {
+        // Windows of 200 tokens overlapping by 4
+        for (int w = 0; w < 10; w++) {
+            append(sequence(1 + w * 196, 200));
+        }
+        assertStitched(sequence(1, 9 * 196 + 200));
+    }
+
+    private int append(int[] window) {
+        return stitcher.append(window, window.length);
+    }
+
+    private void assertStitched(int[] expected) {
+        assertArrayEquals(expected, Arrays.copyOf(stitcher.getTokens(), stitcher.size()));
+    }
+
+    private static int[] sequence(int first, int length) {
+        int[] tokens = new int[length];
+        for (int i = 0; i < length; i++) {
+            tokens[i] = first + i;
+        }
+        return tokens;
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        int[] tokens = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, tokens, a.length, b.length);
+        return tokens;
+    }
+}
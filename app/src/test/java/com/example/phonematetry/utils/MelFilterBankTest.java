@@ -0,0 +1,89 @@
+package com.example.phonematetry.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * The compact mel filter bank against the dense filter matrix it is built from: skipping the
+ * zero weights must leave every band energy unchanged.
+ */
+public class MelFilterBankTest {
+    private static final String VOCAB_PATH = "src/main/assets/filters_vocab_en.bin";
+
+    private int nMel;
+    private int nFft;
+    private float[] dense;
+    private MelFilterBank filterBank;
+
+    @Before
+    public void setUp() throws IOException {
+        // Header: magic, n_mel, n_fft, then the dense n_mel x n_fft matrix
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(new File(VOCAB_PATH).toPath()))
+                .order(ByteOrder.nativeOrder());
+        file.getInt();
+        nMel = file.getInt();
+        nFft = file.getInt();
+        dense = new float[nMel * nFft];
+        file.asFloatBuffer().get(dense);
+        filterBank = new MelFilterBank(dense, nMel, nFft);
+    }
+
+    @Test
+    public void bandEnergy_matchesDenseProjection() {
+        Random random = new Random(42);
+        float[] power = new float[nFft];
+        for (int round = 0; round < 16; round++) {
+            for (int k = 0; k < nFft; k++) {
+                power[k] = random.nextFloat() * random.nextFloat();
+            }
+            for (int j = 0; j < nMel; j++) {
+                assertEquals("band " + j, denseEnergy(j, power), filterBank.bandEnergy(j, power), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void storesOnlyNonZeroRuns() {
+        int nonZero = 0;
+        for (float weight : dense) {
+            if (weight != 0.0f) {
+                nonZero++;
+            }
+        }
+        assertEquals(nMel, filterBank.getMelCount());
+        assertEquals(nFft, filterBank.getBinCount());
+        assertTrue(filterBank.getWeightCount() >= nonZero);
+        assertTrue(filterBank.getWeightCount() < nMel * nFft / 10);
+    }
+
+    @Test
+    public void restoredBank_matchesBuiltBank() {
+        MelFilterBank restored = new MelFilterBank(nMel, nFft, filterBank.getBandStart(),
+                filterBank.getBandEnd(), filterBank.getWeightOffset(), filterBank.getWeights());
+        float[] power = new float[nFft];
+        for (int k = 0; k < nFft; k++) {
+            power[k] = k % 7;
+        }
+        for (int j = 0; j < nMel; j++) {
+            assertEquals(filterBank.bandEnergy(j, power), restored.bandEnergy(j, power), 0.0);
+        }
+    }
+
+    // Full row of the dense matrix, as the mel projection was computed before the compact bank
+    private double denseEnergy(int band, float[] power) {
+        double sum = 0.0;
+        for (int k = 0; k < nFft; k++) {
+            sum += power[k] * dense[band * nFft + k];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.phonematetry.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Accuracy of the microphone resampler against reference sine waves: the output must be the
+ * same sine at 16 kHz (SNR and THD measured against an exact fit), nothing above the passband
+ * may alias into it, and the result must not depend on how the stream is split into blocks.
+ */
+public class PolyphaseResamplerTest {
+    private static final int WHISPER_RATE = WhisperUtil.WHISPER_SAMPLE_RATE;
+
+    // Accuracy the float path must reach across the passband
+    private static final double MIN_SNR_DB = 100.0;
+    private static final double MAX_THD_DB = -100.0;
+    // 16-bit output is bounded by its own quantization noise
+    private static final double MIN_SNR_PCM16_DB = 70.0;
+    private static final double MIN_ALIAS_REJECTION_DB = 85.0;
+    private static final double MAX_PASSBAND_RIPPLE_DB = 0.05;
+
+    private static final int[] TEST_FREQUENCIES = {100, 440, 1000, 3000, 5000, 7000};
+    private static final int SECONDS = 2;
+
+    @Test
+    public void from48k_sineSnrAndThd() {
+        for (int frequency : TEST_FREQUENCIES) {
+            assertSineAccuracy(48000, frequency);
+        }
+    }
+
+    @Test
+    public void from44k1_sineSnrAndThd() {
+        for (int frequency : TEST_FREQUENCIES) {
+            assertSineAccuracy(44100, frequency);
+        }
+    }
+
+    @Test
+    public void from16k_passesSignalThrough() {
+        assertSineAccuracy(16000, 1000);
+    }
+
+    @Test
+    public void pcm16_sineSnr() {
+        PolyphaseResampler resampler = new PolyphaseResampler(48000, WHISPER_RATE);
+        short[] in = new short[48000 * SECONDS];
+        for (int i = 0; i < in.length; i++) {
+            in[i] = (short) Math.round(16000 * Math.sin(2 * Math.PI * 1000 * i / 48000.0));
+        }
+        short[] out = new short[resampler.maxOutput(in.length)];
+        int n = resampler.process(in, 0, in.length, out, 0);
+
+        double[] signal = new double[n];
+        for (int i = 0; i < n; i++) {
+            signal[i] = out[i] / 32768.0;
+        }
+        double snr = snrDb(signal, steadyStart(resampler), n, 1000.0 / WHISPER_RATE);
+        assertTrue("16-bit SNR " + snr + " dB", snr > MIN_SNR_PCM16_DB);
+    }
+
+    @Test
+    public void passbandIsFlat() {
+        for (int inRate : new int[] {48000, 44100}) {
+            for (int frequency : TEST_FREQUENCIES) {
+                double gain = 20 * Math.log10(amplitude(resampleSine(inRate, frequency), inRate, frequency));
+                assertEquals(inRate + " Hz input, " + frequency + " Hz gain", 0.0, gain, MAX_PASSBAND_RIPPLE_DB);
+            }
+        }
+    }
+
+    @Test
+    public void rejectsAliases() {
+        // Tones that would fold back into 0..7.2 kHz at 16 kHz
+        for (int inRate : new int[] {48000, 44100}) {
+            for (int frequency : new int[] {8800, 10000, 12000, 15000, 20000}) {
+                PolyphaseResampler resampler = new PolyphaseResampler(inRate, WHISPER_RATE);
+                float[] out = resampleSine(inRate, frequency);
+                double rms = 0.0;
+                int start = steadyStart(resampler);
+                for (int i = start; i < out.length; i++) {
+                    rms += out[i] * out[i];
+                }
+                rms = Math.sqrt(rms / (out.length - start));
+                double rejection = -20 * Math.log10(rms / Math.sqrt(0.5) + 1e-12);
+                assertTrue(inRate + " Hz input, " + frequency + " Hz tone only " + rejection + " dB down",
+                        rejection > MIN_ALIAS_REJECTION_DB);
+            }
+        }
+    }
+
+    @Test
+    public void outputIndependentOfBlockSizes() {
+        float[] in = new float[44100];
+        Random random = new Random(7);
+        for (int i = 0; i < in.length; i++) {
+            in[i] = (float) random.nextGaussian() * 0.2f;
+        }
+
+        PolyphaseResampler whole = new PolyphaseResampler(44100, WHISPER_RATE);
+        float[] expected = new float[whole.maxOutput(in.length)];
+        int expectedCount = whole.process(in, 0, in.length, expected, 0);
+
+        PolyphaseResampler blocks = new PolyphaseResampler(44100, WHISPER_RATE);
+        float[] actual = new float[expected.length];
+        float[] block = new float[blocks.maxOutput(4000)];
+        int count = 0;
+        for (int offset = 0; offset < in.length; ) {
+            int length = Math.min(in.length - offset, 1 + random.nextInt(4000));
+            int n = blocks.process(in, offset, length, block, 0);
+            System.arraycopy(block, 0, actual, count, n);
+            count += n;
+            offset += length;
+        }
+
+        assertEquals(expectedCount, count);
+        for (int i = 0; i < count; i++) {
+            assertEquals("sample " + i, expected[i], actual[i], 0.0f);
+        }
+    }
+
+    @Test
+    public void producesOneThirdOf48k() {
+        PolyphaseResampler resampler = new PolyphaseResampler(48000, WHISPER_RATE);
+        short[] in = new short[480];
+        short[] out = new short[resampler.maxOutput(in.length)];
+        int total = 0;
+        for (int block = 0; block < 100; block++) {
+            total += resampler.process(in, 0, in.length, out, 0);
+        }
+        assertEquals(16000, total);
+    }
+
+    private static void assertSineAccuracy(int inRate, int frequency) {
+        PolyphaseResampler resampler = new PolyphaseResampler(inRate, WHISPER_RATE);
+        float[] out = resampleSine(inRate, frequency);
+        double[] signal = new double[out.length];
+        for (int i = 0; i < out.length; i++) {
+            signal[i] = out[i];
+        }
+        int start = steadyStart(resampler);
+        double cycles = (double) frequency / WHISPER_RATE;
+
+        double snr = snrDb(signal, start, signal.length, cycles);
+        assertTrue(inRate + " Hz input, " + frequency + " Hz: SNR " + snr + " dB", snr > MIN_SNR_DB);
+
+        // Harmonics are measured on what is left after removing the fundamental, so the
+        // fundamental's own leakage over a window of fractional periods does not count
+        double[] fit = fitSine(signal, start, signal.length, cycles);
+        double fundamental = Math.hypot(fit[0], fit[1]);
+        double[] residual = new double[signal.length];
+        for (int i = start; i < signal.length; i++) {
+            residual[i] = signal[i] - fit[0] * Math.cos(2 * Math.PI * cycles * i) - fit[1] * Math.sin(2 * Math.PI * cycles * i);
+        }
+        double harmonics = 0.0;
+        for (int h = 2; h * frequency < WHISPER_RATE / 2; h++) {
+            double a = toneAmplitude(residual, start, residual.length, cycles * h);
+            harmonics += a * a;
+        }
+        double thd = 10 * Math.log10(harmonics / (fundamental * fundamental) + 1e-30);
+        assertTrue(inRate + " Hz input, " + frequency + " Hz: THD " + thd + " dB", thd < MAX_THD_DB);
+    }
+
+    // A full-scale-ish sine (amplitude 0.5 * sqrt(2)) at inRate, resampled to 16 kHz in 10 ms blocks
+    private static float[] resampleSine(int inRate, int frequency) {
+        PolyphaseResampler resampler = new PolyphaseResampler(inRate, WHISPER_RATE);
+        float[] in = new float[inRate * SECONDS];
+        for (int i = 0; i < in.length; i++) {
+            in[i] = (float) (Math.sqrt(0.5) * Math.sin(2 * Math.PI * frequency * i / inRate));
+        }
+        float[] out = new float[resampler.maxOutput(in.length)];
+        int count = 0;
+        int block = inRate / 100;
+        for (int offset = 0; offset < in.length; offset += block) {
+            count += resampler.process(in, offset, Math.min(block, in.length - offset), out, count);
+        }
+        return Arrays.copyOf(out, count);
+    }
+
+    private static double amplitude(float[] out, int inRate, int frequency) {
+        double[] signal = new double[out.length];
+        for (int i = 0; i < out.length; i++) {
+            signal[i] = out[i];
+        }
+        int start = steadyStart(new PolyphaseResampler(inRate, WHISPER_RATE));
+        return toneAmplitude(signal, start, signal.length, (double) frequency / WHISPER_RATE) / Math.sqrt(0.5);
+    }
+
+    // First output past the filter's start-up transient
+    private static int steadyStart(PolyphaseResampler resampler) {
+        return (int) Math.ceil(2 * resampler.getDelay()) + 1;
+    }
+
+    // Signal to noise ratio of x[start, end) against its least-squares fit to a sine of the given
+    // frequency (cycles per sample); everything that is not that sine counts as noise
+    private static double snrDb(double[] x, int start, int end, double cycles) {
+        double[] fit = fitSine(x, start, end, cycles);
+        double signal = 0.0;
+        double noise = 0.0;
+        for (int i = start; i < end; i++) {
+            double model = fit[0] * Math.cos(2 * Math.PI * cycles * i) + fit[1] * Math.sin(2 * Math.PI * cycles * i);
+            signal += model * model;
+            noise += (x[i] - model) * (x[i] - model);
+        }
+        return 10 * Math.log10(signal / noise);
+    }
+
+    private static double toneAmplitude(double[] x, int start, int end, double cycles) {
+        double[] fit = fitSine(x, start, end, cycles);
+        return Math.hypot(fit[0], fit[1]);
+    }
+
+    // Cosine and sine coefficients of the least-squares fit
+    private static double[] fitSine(double[] x, int start, int end, double cycles) {
+        double cc = 0.0;
+        double ss = 0.0;
+        double cs = 0.0;
+        double xc = 0.0;
+        double xs = 0.0;
+        for (int i = start; i < end; i++) {
+            double c = Math.cos(2 * Math.PI * cycles * i);
+            double s = Math.sin(2 * Math.PI * cycles * i);
+            cc += c * c;
+            ss += s * s;
+            cs += c * s;
+            xc += x[i] * c;
+            xs += x[i] * s;
+        }
+        double det = cc * ss - cs * cs;
+        return new double[] {(xc * ss - xs * cs) / det, (xs * cc - xc * cs) / det};
+    }
+}
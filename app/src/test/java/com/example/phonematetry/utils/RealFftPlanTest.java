@@ -0,0 +1,81 @@
+package com.example.phonematetry.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * The mixed-radix real FFT against a naive double-precision DFT: the Whisper frame size of 400
+ * (radices 2 and 5), a power of two, and the smallest sizes, for both the complex bins and the
+ * power spectrum.
+ */
+public class RealFftPlanTest {
+    // Largest error allowed on a bin of a random signal in [-1, 1)
+    private static final double TOLERANCE = 2e-5;
+
+    @Test
+    public void whisperFrameSize_matchesNaiveDft() {
+        assertMatchesDft(400);
+    }
+
+    @Test
+    public void powerOfTwo_matchesNaiveDft() {
+        assertMatchesDft(512);
+    }
+
+    @Test
+    public void smallSizes_matchNaiveDft() {
+        for (int n : new int[] {2, 4, 10, 20, 50}) {
+            assertMatchesDft(n);
+        }
+    }
+
+    @Test
+    public void binCount_isHalfPlusOne() {
+        RealFftPlan plan = new RealFftPlan(400);
+        assertEquals(400, plan.size());
+        assertEquals(201, plan.binCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oddSize_isRejected() {
+        new RealFftPlan(401);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void otherPrimeFactor_isRejected() {
+        new RealFftPlan(6);
+    }
+
+    private static void assertMatchesDft(int n) {
+        RealFftPlan plan = new RealFftPlan(n);
+        Random random = new Random(n);
+        float[] input = new float[n];
+        for (int i = 0; i < n; i++) {
+            input[i] = random.nextFloat() * 2.0f - 1.0f;
+        }
+
+        float[] work = plan.newWorkBuffer();
+        float[] bins = new float[n + 2];
+        float[] power = new float[plan.binCount()];
+        plan.forward(input, bins, work);
+        plan.powerSpectrum(input, power, work);
+
+        for (int k = 0; k <= n / 2; k++) {
+            double re = 0.0;
+            double im = 0.0;
+            for (int t = 0; t < n; t++) {
+                double angle = 2.0 * Math.PI * ((long) k * t % n) / n;
+                re += input[t] * Math.cos(angle);
+                im -= input[t] * Math.sin(angle);
+            }
+            assertEquals("n=" + n + " re[" + k + "]", re, bins[2 * k], TOLERANCE);
+            assertEquals("n=" + n + " im[" + k + "]", im, bins[2 * k + 1], TOLERANCE);
+            double expected = re * re + im * im;
+            assertEquals("n=" + n + " power[" + k + "]", expected, power[k],
+                    TOLERANCE * (1.0 + 2.0 * Math.sqrt(expected)));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.phonematetry.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trip of the parsed-vocab cache, and rejection of caches that have the right size but
+ * contents VocabStore or MelFilterBank could not use.
+ */
+public class VocabCacheTest {
+    // Header: magic, version, source length and modification time, nMel, nFft, nVocab, nWeights
+    private static final int HEADER_BYTES = 40;
+    private static final int N_MEL = 2;
+    private static final int N_FFT = 8;
+    private static final int SOURCE_BYTES = 64;
+
+    private File source;
+    private File cache;
+
+    @Before
+    public void setUp() throws IOException {
+        source = File.createTempFile("vocab", ".bin");
+        Files.write(source.toPath(), new byte[SOURCE_BYTES]);
+        cache = new File(source.getPath() + ".cache");
+        // Bands [1, 3) and [2, 5); three tokens of 4, 6 and 8 bytes including their prefixes
+        new VocabCache(N_MEL, N_FFT, new int[] {1, 2}, new int[] {3, 5}, new int[] {0, 2},
+                new float[] {0.5f, 1.0f, 0.25f, 0.5f, 0.75f}, new int[] {12, 16, 22, 30})
+                .write(cache, source);
+    }
+
+    @After
+    public void tearDown() {
+        cache.delete();
+        source.delete();
+    }
+
+    @Test
+    public void read_returnsWrittenArrays() throws IOException {
+        VocabCache read = VocabCache.read(cache, source);
+        assertNotNull(read);
+        assertEquals(N_MEL, read.nMel);
+        assertEquals(N_FFT, read.nFft);
+        assertArrayEquals(new int[] {1, 2}, read.bandStart);
+        assertArrayEquals(new int[] {3, 5}, read.bandEnd);
+        assertArrayEquals(new int[] {0, 2}, read.weightOffset);
+        assertArrayEquals(new int[] {12, 16, 22, 30}, read.offsets);
+        assertArrayEquals(new float[] {0.5f, 1.0f, 0.25f, 0.5f, 0.75f}, read.weights, 0.0f);
+    }
+
+    @Test
+    public void read_rejectsChangedSource() throws IOException {
+        Files.write(source.toPath(), new byte[SOURCE_BYTES + 1]);
+        assertNull(VocabCache.read(cache, source));
+    }
+
+    @Test
+    public void read_rejectsBandPastFftSize() throws IOException {
+        assertNull(readWithInt(bandEnd(1), N_FFT + 1));
+    }
+
+    @Test
+    public void read_rejectsReversedBand() throws IOException {
+        assertNull(readWithInt(bandStart(0), 4));
+    }
+
+    @Test
+    public void read_rejectsNegativeBandStart() throws IOException {
+        assertNull(readWithInt(bandStart(0), -1));
+    }
+
+    @Test
+    public void read_rejectsWeightsPastEnd() throws IOException {
+        assertNull(readWithInt(weightOffset(1), 3));
+    }
+
+    @Test
+    public void read_rejectsNonMonotonicOffsets() throws IOException {
+        assertNull(readWithInt(offset(2), 14));
+    }
+
+    @Test
+    public void read_rejectsEntryShorterThanItsPrefix() throws IOException {
+        assertNull(readWithInt(offset(1), 14));
+    }
+
+    @Test
+    public void read_rejectsOffsetsPastSource() throws IOException {
+        assertNull(readWithInt(offset(3), SOURCE_BYTES + 4));
+    }
+
+    @Test
+    public void read_rejectsNegativeOffset() throws IOException {
+        assertNull(readWithInt(offset(0), -4));
+    }
+
+    private static long bandStart(int band) {
+        return HEADER_BYTES + (long) band * Integer.BYTES;
+    }
+
+    private static long bandEnd(int band) {
+        return bandStart(N_MEL + band);
+    }
+
+    private static long weightOffset(int band) {
+        return bandStart(2 * N_MEL + band);
+    }
+
+    private static long offset(int token) {
+        return bandStart(3 * N_MEL + token);
+    }
+
+    // Overwrites one int of the cache in place, keeping its size, and reads it back
+    private VocabCache readWithInt(long position, int value) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(cache, "rw")) {
+            file.seek(position);
+            file.write(ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.nativeOrder()).putInt(value).array());
+        }
+        return VocabCache.read(cache, source);
+    }
+}
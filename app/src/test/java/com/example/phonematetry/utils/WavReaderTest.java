@@ -0,0 +1,270 @@
+package com.example.phonematetry.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Parsing of WAV files built in memory: 16-bit and float data, plain and WAVE_FORMAT_EXTENSIBLE
+ * headers, downmixing to mono, chunks the reader has to step over, and data chunks that end
+ * before their header says.
+ */
+public class WavReaderTest {
+    private static final int RATE = 16000;
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_FLOAT = 3;
+
+    @Test
+    public void pcm16Mono_isScaledToUnitRange() throws IOException {
+        WavReader reader = WavReader.parse(new WavBuilder()
+                .chunk("fmt ", fmt(FORMAT_PCM, 1, 16))
+                .chunk("data", pcm16(0, 16384, -32768, 32767))
+                .build(), "test");
+        assertEquals(RATE, reader.getSampleRate());
+        assertEquals(1, reader.getChannels());
+        assertFalse(reader.isFloat());
+        assertEquals(4, reader.getFrameCount());
+        assertFrames(reader, 0.0f, 0.5f, -1.0f, 32767 / 32768.0f);
+    }
+
+    @Test
+    public void float32Mono_isReadAsIs() throws IOException {
+        WavReader reader = WavReader.parse(new WavBuilder()
+                .chunk("fmt ", fmt(FORMAT_FLOAT, 1, 32))
+                .chunk("data", float32(0.25f, -0.75f, 1.0f))
+                .build(), "test");
+        assertTrue(reader.isFloat());
+        assertEquals(3, reader.getFrameCount());
+        assertFrames(reader, 0.25f, -0.75f, 1.0f);
+    }
+
+    @Test
+    public void extensible_takesFormatFromSubFormat() throws IOException {
+        WavReader floats = WavReader.parse(new WavBuilder()
+                .chunk("fmt ", fmtExtensible(FORMAT_FLOAT, 1, 32))
+                .chunk("data", float32(0.5f, -0.125f))
+                .build(), "test");
+        assertTrue(floats.isFloat());
+        assertFrames(floats, 0.5f, -0.125f);
+
+        WavReader shorts = WavReader.parse(new WavBuilder()
+                .chunk("fmt ", fmtExtensible(FORMAT_PCM, 1, 16))
+                .chunk("data", pcm16(8192, -8192))
+                .build(), "test");
+        assertFalse(shorts.isFloat());
+        assertFrames(shorts, 0.25f, -0.25f);
+    }
+
+    @Test
+    public void stereo_isDownmixedToMono() throws IOException {
+        WavReader shorts = WavReader.parse(new WavBuilder()
+                .chunk("fmt ", fmt(FORMAT_PCM, 2, 16))
+                .chunk("data", pcm16(1000, 3000, -16384, 0, 32767, 32767))
+                .build(), "test");
+        assertEquals(2, shorts.getChannels());
+        assertEquals(3, shorts.getFrameCount());
+        assertFrames(shorts, 2000 / 32768.0f, -0.25f, 32767 / 32768.0f);
+
+        WavReader floats = WavReader.parse(new WavBuilder()
+                .chunk("fmt ", fmtExtensible(FORMAT_FLOAT, 2, 32))
+                .chunk("data", float32(0.5f, -0.5f, 1.0f, 0.5f))
+                .build(), "test");
+        assertFrames(floats, 0.0f, 0.75f);
+    }
+
+    @Test
+    public void oddSizedChunks_areSkippedWithTheirPadByte() throws IOException {
+        WavReader reader = WavReader.parse(new WavBuilder()
+                .chunk("LIST", new byte[] {1, 2, 3})
+                .chunk("fmt ", fmt(FORMAT_PCM, 1, 16))
+                .chunk("fact", new byte[] {4, 5, 6, 7, 8})
+                .chunk("data", pcm16(100, 200))
+                .build(), "test");
+        assertFrames(reader, 100 / 32768.0f, 200 / 32768.0f);
+    }
+
+    @Test
+    public void truncatedData_readsWhatIsThere() throws IOException {
+        // The header promises 1000 bytes; three samples and half of a fourth arrived
+        ByteBuffer buf = new WavBuilder()
+                .chunk("fmt ", fmt(FORMAT_PCM, 1, 16))
+                .chunk("data", 1000, new byte[] {1, 0, 2, 0, 3, 0, 4})
+                .build();
+        WavReader reader = WavReader.parse(buf, "test");
+        assertEquals(3, reader.getFrameCount());
+        assertFrames(reader, 1 / 32768.0f, 2 / 32768.0f, 3 / 32768.0f);
+
+        // A stereo file cut in the middle of a frame
+        WavReader stereo = WavReader.parse(new WavBuilder()
+                .chunk("fmt ", fmt(FORMAT_PCM, 2, 16))
+                .chunk("data", 0xffffffff, pcm16(10, 30, 50))
+                .build(), "test");
+        assertEquals(1, stereo.getFrameCount());
+        assertFrames(stereo, 20 / 32768.0f);
+    }
+
+    @Test
+    public void read_inChunksThenEnd() throws IOException {
+        short[] samples = new short[1000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (i * 31);
+        }
+        WavReader reader = WavReader.parse(new WavBuilder()
+                .chunk("fmt ", fmt(FORMAT_PCM, 1, 16))
+                .chunk("data", pcm16(samples))
+                .build(), "test");
+
+        float[] chunk = new float[300];
+        int total = 0;
+        int count;
+        while ((count = reader.read(chunk, 0, chunk.length)) > 0) {
+            for (int i = 0; i < count; i++) {
+                float expected = samples[total + i] / 32768.0f;
+                assertEquals("sample " + (total + i), expected, chunk[i], 0.0f);
+            }
+            total += count;
+            assertEquals(total, reader.getPosition());
+        }
+        assertEquals(-1, count);
+        assertEquals(samples.length, total);
+
+        reader.seek(998);
+        assertEquals(2, reader.read(chunk, 10, chunk.length - 10));
+        assertEquals(samples[999] / 32768.0f, chunk[11], 0.0f);
+    }
+
+    @Test(expected = IOException.class)
+    public void notRiff_isRejected() throws IOException {
+        ByteBuffer buf = new WavBuilder().chunk("fmt ", fmt(FORMAT_PCM, 1, 16)).build();
+        buf.put(0, (byte) 'X');
+        WavReader.parse(buf, "test");
+    }
+
+    @Test(expected = IOException.class)
+    public void dataBeforeFmt_isRejected() throws IOException {
+        WavReader.parse(new WavBuilder()
+                .chunk("data", pcm16(1, 2))
+                .chunk("fmt ", fmt(FORMAT_PCM, 1, 16))
+                .build(), "test");
+    }
+
+    @Test(expected = IOException.class)
+    public void unsupportedFormat_isRejected() throws IOException {
+        WavReader.parse(new WavBuilder()
+                .chunk("fmt ", fmt(FORMAT_PCM, 1, 8))
+                .chunk("data", new byte[] {1, 2})
+                .build(), "test");
+    }
+
+    @Test(expected = IOException.class)
+    public void noDataChunk_isRejected() throws IOException {
+        WavReader.parse(new WavBuilder().chunk("fmt ", fmt(FORMAT_PCM, 1, 16)).build(), "test");
+    }
+
+    private static void assertFrames(WavReader reader, float... expected) {
+        float[] frames = new float[expected.length + 1];
+        assertEquals(expected.length, reader.read(frames, 0, frames.length));
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("frame " + i, expected[i], frames[i], 1e-7f);
+        }
+        assertEquals(-1, reader.read(frames, 0, frames.length));
+    }
+
+    // A plain 16-byte fmt chunk body
+    private static byte[] fmt(int format, int channels, int bits) {
+        return fmtBody(format, channels, bits, 16).array();
+    }
+
+    // A 40-byte WAVE_FORMAT_EXTENSIBLE fmt chunk body whose sub-format GUID names format
+    private static byte[] fmtExtensible(int format, int channels, int bits) {
+        ByteBuffer body = fmtBody(0xfffe, channels, bits, 40);
+        body.putShort((short) 22);
+        body.putShort((short) bits);
+        body.putInt(channels == 1 ? 0x4 : 0x3);
+        body.putShort((short) format);
+        // The rest of KSDATAFORMAT_SUBTYPE_PCM / _IEEE_FLOAT
+        body.put(new byte[] {0x00, 0x00, 0x00, 0x00, 0x10, 0x00, (byte) 0x80, 0x00,
+                0x00, (byte) 0xaa, 0x00, 0x38, (byte) 0x9b, 0x71});
+        return body.array();
+    }
+
+    private static ByteBuffer fmtBody(int format, int channels, int bits, int size) {
+        ByteBuffer body = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        int blockAlign = channels * bits / 8;
+        body.putShort((short) format);
+        body.putShort((short) channels);
+        body.putInt(RATE);
+        body.putInt(RATE * blockAlign);
+        body.putShort((short) blockAlign);
+        body.putShort((short) bits);
+        return body;
+    }
+
+    private static byte[] pcm16(int... samples) {
+        ByteBuffer data = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int sample : samples) {
+            data.putShort((short) sample);
+        }
+        return data.array();
+    }
+
+    private static byte[] pcm16(short[] samples) {
+        ByteBuffer data = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        data.asShortBuffer().put(samples);
+        return data.array();
+    }
+
+    private static byte[] float32(float... samples) {
+        ByteBuffer data = ByteBuffer.allocate(samples.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        data.asFloatBuffer().put(samples);
+        return data.array();
+    }
+
+    // Builds a RIFF/WAVE file chunk by chunk, with a pad byte after odd-sized chunks
+    private static class WavBuilder {
+        private final ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+
+        WavBuilder chunk(String id, byte[] body) {
+            return chunk(id, body.length, body);
+        }
+
+        // A chunk whose header gives declaredSize, e.g. more than body for a truncated file
+        WavBuilder chunk(String id, int declaredSize, byte[] body) {
+            chunks.write(id.getBytes(StandardCharsets.US_ASCII), 0, 4);
+            writeInt(chunks, declaredSize);
+            chunks.write(body, 0, body.length);
+            if (declaredSize == body.length && (body.length & 1) != 0) {
+                chunks.write(0);
+            }
+            return this;
+        }
+
+        ByteBuffer build() {
+            ByteArrayOutputStream file = new ByteArrayOutputStream();
+            file.write('R');
+            file.write('I');
+            file.write('F');
+            file.write('F');
+            writeInt(file, 4 + chunks.size());
+            file.write('W');
+            file.write('A');
+            file.write('V');
+            file.write('E');
+            byte[] body = chunks.toByteArray();
+            file.write(body, 0, body.length);
+            return ByteBuffer.wrap(file.toByteArray());
+        }
+
+        private static void writeInt(ByteArrayOutputStream out, int value) {
+            for (int i = 0; i < 4; i++) {
+                out.write(value >>> (8 * i));
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.phonematetry.utils;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the steady-state transcription front-end (mel spectrogram into the model input
+ * buffer, streaming mel and token decoding) allocates nothing on the Java heap after warm-up.
+ */
+public class WhisperUtilAllocationTest {
+    private static final String VOCAB_PATH = "src/main/assets/filters_vocab_en.bin";
+
+    // Bytes a steady-state round may allocate across the caller and the mel worker threads
+    private static final long ALLOCATION_BUDGET_BYTES = 0;
+
+    private static final int WARM_UP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    private com.sun.management.ThreadMXBean threadBean;
+    private WhisperUtil whisperUtil;
+    private float[] samples;
+    private FloatBuffer input;
+
+    @Before
+    public void setUp() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        whisperUtil = new WhisperUtil();
+        assertTrue(whisperUtil.loadFiltersAndVocab(false, VOCAB_PATH));
+
+        // 4 seconds of a chirp, the rest of the 30 s window is padding
+        samples = new float[4 * WhisperUtil.WHISPER_SAMPLE_RATE];
+        for (int i = 0; i < samples.length; i++) {
+            double t = (double) i / WhisperUtil.WHISPER_SAMPLE_RATE;
+            samples[i] = (float) (0.1 * Math.sin(2 * Math.PI * (200 + 300 * t) * t));
+        }
+
+        input = ByteBuffer.allocateDirect(4 * WhisperUtil.WHISPER_N_MEL * WhisperUtil.WHISPER_MEL_LEN)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+
+    @Test
+    public void melSpectrogram_singleThread_doesNotAllocate() {
+        assertSteadyStateAllocation(() -> whisperUtil.getMelSpectrogram(samples, samples.length, input, 1));
+    }
+
+    @Test
+    public void melSpectrogram_multiThread_doesNotAllocate() {
+        assertSteadyStateAllocation(() -> whisperUtil.getMelSpectrogram(samples, samples.length, input, 4));
+    }
+
+    @Test
+    public void streamingMel_doesNotAllocate() {
+        StreamingMelSpectrogram stream = whisperUtil.createStreamingMel();
+        short[] pcm = new short[1024];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (short) (samples[i] * 32767);
+        }
+
+        assertSteadyStateAllocation(() -> {
+            stream.reset();
+            for (int block = 0; block < 60; block++) {
+                stream.append(pcm, 0, pcm.length);
+            }
+            stream.finish(input, 4);
+        });
+    }
+
+    @Test
+    public void tokenDecoding_doesNotAllocate() {
+        int[] tokens = {1770, 13, 2264, 346, 353, 318, 262, 46329, 286, 262, 3504, 6097, 11, 290, 356};
+        StringBuilder text = new StringBuilder();
+
+        assertSteadyStateAllocation(() -> {
+            text.setLength(0);
+            whisperUtil.appendText(tokens, tokens.length, text);
+        });
+        assertTrue(text.length() > 0);
+    }
+
+    @Test
+    public void melSpectrogram_resultIndependentOfThreadCount() {
+        whisperUtil.getMelSpectrogram(samples, samples.length, input, 1);
+        float[] sequential = new float[input.capacity()];
+        input.get(sequential);
+        input.rewind();
+
+        whisperUtil.getMelSpectrogram(samples, samples.length, input, 4);
+        float[] parallel = new float[input.capacity()];
+        input.get(parallel);
+        input.rewind();
+
+        assertArrayEquals(sequential, parallel, 0.0f);
+    }
+
+    private void assertSteadyStateAllocation(Runnable round) {
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            round.run();
+        }
+
+        long[] threadIds = measuredThreadIds();
+        long[] before = new long[threadIds.length];
+        long[] after = new long[threadIds.length];
+
+        readAllocatedBytes(threadIds, before);
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            round.run();
+        }
+        readAllocatedBytes(threadIds, after);
+
+        long allocated = 0;
+        for (int i = 0; i < threadIds.length; i++) {
+            allocated += after[i] - before[i];
+        }
+        assertTrue("Allocated " + allocated + " bytes over " + MEASURED_ROUNDS + " rounds",
+                allocated <= ALLOCATION_BUDGET_BYTES * MEASURED_ROUNDS);
+    }
+
+    private void readAllocatedBytes(long[] threadIds, long[] out) {
+        for (int i = 0; i < threadIds.length; i++) {
+            out[i] = threadBean.getThreadAllocatedBytes(threadIds[i]);
+        }
+    }
+
+    private static long[] measuredThreadIds() {
+        List<Long> ids = new ArrayList<>();
+        ids.add(Thread.currentThread().getId());
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("mel-worker-")) {
+                ids.add(thread.getId());
+            }
+        }
+        long[] result = new long[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+        return result;
+    }
+}
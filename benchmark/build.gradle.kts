@@ -0,0 +1,46 @@
+// Off-device JMH benchmarks for the Whisper front-end (mel spectrogram, FFT, vocab loading,
+// token decoding and microphone resampling). The ASR utilities only depend on android.util.Log,
+// so they are compiled straight from the app sources against a no-op Log stub.
+//
+//   ./gradlew :benchmark:jmh
+//   ./gradlew :benchmark:jmh -PjmhIncludes=MelSpectrogramBenchmark
+//
+// Results are written to benchmark/build/results/jmh/.
+plugins {
+    `java-library`
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+sourceSets {
+    main {
+        java {
+            srcDir("../app/src/main/java")
+            include("com/example/phonematetry/utils/**")
+            include("android/util/**")
+        }
+    }
+}
+
+dependencies {
+    jmh(libs.jmh.core)
+    jmh(libs.jmh.generator.annprocess)
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh.get())
+    // Throughput plus sampled latency (p50/p90/p99...) for every benchmark, and the GC profiler
+    // for the allocation rate (gc.alloc.rate.norm = bytes per operation)
+    benchmarkMode.set(listOf("thrpt", "sample"))
+    profilers.add("gc")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    resultFormat.set("JSON")
+    jvmArgsAppend.add("-Dphonemate.assets=${rootProject.file("app/src/main/assets").absolutePath}")
+    (findProperty("jmhIncludes") as String?)?.let { includes.add(it) }
+}
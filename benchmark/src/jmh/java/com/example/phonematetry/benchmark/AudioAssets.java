@@ -0,0 +1,49 @@
+package com.example.phonematetry.benchmark;
+
+import com.example.phonematetry.utils.WavReader;
+import com.example.phonematetry.utils.WhisperUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+// Loads the app's bundled test assets. The directory comes from -Dphonemate.assets (set by the
+// jmh task) and falls back to the app module relative to the working directory.
+final class AudioAssets {
+    private AudioAssets() {
+    }
+
+    static File file(String name) {
+        String dir = System.getProperty("phonemate.assets", "../app/src/main/assets");
+        File file = new File(dir, name);
+        if (!file.isFile()) {
+            throw new IllegalStateException("Asset not found: " + file.getAbsolutePath());
+        }
+        return file;
+    }
+
+    // Mono 16 kHz samples in [-1, 1]
+    static float[] loadWav(String name) throws IOException {
+        WavReader reader = WavReader.open(file(name).getPath());
+        if (reader.getSampleRate() != WhisperUtil.WHISPER_SAMPLE_RATE) {
+            throw new IOException(name + ": expected 16 kHz, got " + reader.getSampleRate() + " Hz");
+        }
+        float[] samples = new float[reader.getFrameCount()];
+        reader.read(samples, 0, samples.length);
+        return samples;
+    }
+
+    // The dense n_mel x n_fft filter matrix from the header of filters_vocab_en.bin
+    static float[] loadDenseFilters() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file("filters_vocab_en.bin").toPath()))
+                .order(ByteOrder.nativeOrder());
+        buffer.getInt();
+        int nMel = buffer.getInt();
+        int nFft = buffer.getInt();
+        float[] filters = new float[nMel * nFft];
+        buffer.asFloatBuffer().get(filters);
+        return filters;
+    }
+}
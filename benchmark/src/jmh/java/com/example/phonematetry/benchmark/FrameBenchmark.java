@@ -0,0 +1,79 @@
+package com.example.phonematetry.benchmark;
+
+import com.example.phonematetry.utils.MelFilterBank;
+import com.example.phonematetry.utils.RealFftPlan;
+import com.example.phonematetry.utils.WhisperUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Per-frame building blocks of the spectrogram: the 400-point FFT and the mel projection.
+// One 30 s spectrogram runs each of these 3000 times.
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameBenchmark {
+    private final RealFftPlan plan = new RealFftPlan(WhisperUtil.WHISPER_N_FFT);
+    private final float[] frame = new float[WhisperUtil.WHISPER_N_FFT];
+    private final float[] spectrum = new float[2 * plan.binCount()];
+    private final float[] power = new float[plan.binCount()];
+    private final float[] work = plan.newWorkBuffer();
+    private MelFilterBank filterBank;
+    private float[] denseFilters;
+
+    @Setup
+    public void setUp() throws IOException {
+        // A speech frame from the middle of jfk.wav, Hann windowed like the real pipeline
+        float[] samples = AudioAssets.loadWav("jfk.wav");
+        int start = samples.length / 2;
+        for (int i = 0; i < frame.length; i++) {
+            double hann = 0.5 * (1.0 - Math.cos(2.0 * Math.PI * i / frame.length));
+            frame[i] = (float) (hann * samples[start + i]);
+        }
+
+        WhisperUtil whisperUtil = new WhisperUtil();
+        whisperUtil.loadFiltersAndVocab(false, AudioAssets.file("filters_vocab_en.bin").getPath());
+        filterBank = whisperUtil.getFilterBank();
+        denseFilters = AudioAssets.loadDenseFilters();
+        plan.powerSpectrum(frame, power, work);
+    }
+
+    @Benchmark
+    public float[] fftForward() {
+        plan.forward(frame, spectrum, work);
+        return spectrum;
+    }
+
+    @Benchmark
+    public float[] powerSpectrum() {
+        plan.powerSpectrum(frame, power, work);
+        return power;
+    }
+
+    @Benchmark
+    public double melProjectionSparse() {
+        double sum = 0.0;
+        for (int j = 0; j < filterBank.getMelCount(); j++) {
+            sum += filterBank.bandEnergy(j, power);
+        }
+        return sum;
+    }
+
+    // The full nMel x nFft matrix product the compact bank replaces
+    @Benchmark
+    public double melProjectionDense() {
+        int nFft = filterBank.getBinCount();
+        double sum = 0.0;
+        for (int j = 0; j < filterBank.getMelCount(); j++) {
+            for (int k = 0; k < nFft; k++) {
+                sum += power[k] * denseFilters[j * nFft + k];
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.phonematetry.benchmark;
+
+import com.example.phonematetry.utils.StreamingMelSpectrogram;
+import com.example.phonematetry.utils.WavReader;
+import com.example.phonematetry.utils.WhisperUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Log-mel spectrogram of one 30 s window, as done for every transcription
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MelSpectrogramBenchmark {
+    // 100 ms of audio, the size of one AudioRecorder read
+    private static final int STREAM_CHUNK = WhisperUtil.WHISPER_SAMPLE_RATE / 10;
+
+    @Param({"jfk.wav", "english_test1.wav", "english_test2.wav", "english_test_3_bili.wav", "MicInput.wav"})
+    public String input;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private WhisperUtil whisperUtil;
+    private StreamingMelSpectrogram stream;
+    private String path;
+    private float[] samples;
+    private final float[] chunk = new float[4096];
+    private float[] padded;
+    private FloatBuffer dest;
+
+    @Setup
+    public void setUp() throws IOException {
+        whisperUtil = new WhisperUtil();
+        whisperUtil.loadFiltersAndVocab(false, AudioAssets.file("filters_vocab_en.bin").getPath());
+        stream = whisperUtil.createStreamingMel();
+
+        path = AudioAssets.file(input).getPath();
+        samples = AudioAssets.loadWav(input);
+        padded = new float[WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE];
+        System.arraycopy(samples, 0, padded, 0, Math.min(samples.length, padded.length));
+        dest = ByteBuffer.allocateDirect(WhisperUtil.WHISPER_N_MEL * WhisperUtil.WHISPER_MEL_LEN * Float.BYTES)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    @TearDown
+    public void tearDown() {
+        whisperUtil.release();
+    }
+
+    // Array API on a zero-padded 30 s buffer; allocates the result every call
+    @Benchmark
+    public float[] melToArray() {
+        return whisperUtil.getMelSpectrogram(padded, padded.length, threads);
+    }
+
+    // Path used by WhisperTensorflowLite.transcribeBuffer: no padding copy, writes the model input
+    @Benchmark
+    public FloatBuffer melToInputBuffer() {
+        whisperUtil.getMelSpectrogram(samples, samples.length, dest, threads);
+        return dest;
+    }
+
+    // Live capture: frames computed per 100 ms chunk, then finish() once recording stops
+    @Benchmark
+    public FloatBuffer melStreaming() {
+        for (int off = 0; off < samples.length; off += STREAM_CHUNK) {
+            stream.append(samples, off, Math.min(STREAM_CHUNK, samples.length - off));
+        }
+        stream.finish(dest, threads);
+        return dest;
+    }
+
+    // WhisperTensorflowLite.transcribeFile: mapped WAV read in chunks into the streaming builder
+    @Benchmark
+    public FloatBuffer melFromFile() throws IOException {
+        WavReader reader = WavReader.open(path);
+        int read;
+        while ((read = reader.read(chunk, 0, chunk.length)) > 0) {
+            stream.append(chunk, 0, read);
+        }
+        stream.finish(dest, threads);
+        return dest;
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.phonematetry.benchmark;
+
+import com.example.phonematetry.utils.PolyphaseResampler;
+import com.example.phonematetry.utils.WhisperUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// Microphone audio at the device's native rate to Whisper's 16 kHz, one 10 ms capture block per
+// operation; at 100 blocks a second the time per block is also the share of a core capture costs.
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResamplerBenchmark {
+    @Param({"48000", "44100"})
+    public int inputRate;
+
+    private PolyphaseResampler resampler;
+    private short[] pcmBlock;
+    private short[] pcmOut;
+    private float[] floatBlock;
+    private float[] floatOut;
+
+    @Setup
+    public void setUp() {
+        resampler = new PolyphaseResampler(inputRate, WhisperUtil.WHISPER_SAMPLE_RATE);
+        int block = inputRate / 100;
+        pcmBlock = new short[block];
+        floatBlock = new float[block];
+        // A chirp through the speech band
+        for (int i = 0; i < block; i++) {
+            double t = (double) i / inputRate;
+            floatBlock[i] = (float) (0.3 * Math.sin(2 * Math.PI * (300 + 30000 * t) * t));
+            pcmBlock[i] = (short) (floatBlock[i] * 32767);
+        }
+        pcmOut = new short[resampler.maxOutput(block)];
+        floatOut = new float[resampler.maxOutput(block)];
+    }
+
+    @Benchmark
+    public short[] pcm16Block() {
+        resampler.process(pcmBlock, 0, pcmBlock.length, pcmOut, 0);
+        return pcmOut;
+    }
+
+    @Benchmark
+    public float[] floatBlock() {
+        resampler.process(floatBlock, 0, floatBlock.length, floatOut, 0);
+        return floatOut;
+    }
+
+    // Filter design, paid once per capture session
+    @Benchmark
+    public PolyphaseResampler create() {
+        return new PolyphaseResampler(inputRate, WhisperUtil.WHISPER_SAMPLE_RATE);
+    }
+}
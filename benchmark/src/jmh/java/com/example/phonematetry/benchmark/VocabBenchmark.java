@@ -0,0 +1,95 @@
+package com.example.phonematetry.benchmark;
+
+import com.example.phonematetry.utils.WhisperUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Start-up cost of loading filters_vocab_*.bin and the per-result cost of turning tokens into text
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VocabBenchmark {
+    // English decoder output for jfk.wav: "And so my fellow Americans, ask not what your country..."
+    private static final int[] JFK_TOKENS = {
+            50257, 50362, 843, 523, 616, 5891, 3399, 11, 1265, 407, 644, 534, 1499, 460, 466, 329, 345,
+            11, 1265, 644, 345, 460, 466, 329, 534, 1499, 13
+    };
+
+    @Param({"filters_vocab_en.bin", "filters_vocab_multilingual.bin"})
+    public String vocabFile;
+
+    private boolean multilingual;
+    private String vocabPath;
+    private String cachePath;
+
+    @Setup
+    public void setUp() throws IOException {
+        multilingual = vocabFile.contains("multilingual");
+        vocabPath = AudioAssets.file(vocabFile).getPath();
+        File cache = File.createTempFile("vocab", ".cache");
+        cache.delete();
+        cachePath = cache.getPath();
+
+        // Writes the cache used by loadWithCache()
+        new WhisperUtil().loadFiltersAndVocab(multilingual, vocabPath, cachePath);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        new File(cachePath).delete();
+    }
+
+    @Benchmark
+    public WhisperUtil loadWithoutCache() throws IOException {
+        WhisperUtil util = new WhisperUtil();
+        util.loadFiltersAndVocab(multilingual, vocabPath);
+        return util;
+    }
+
+    @Benchmark
+    public WhisperUtil loadWithCache() throws IOException {
+        WhisperUtil util = new WhisperUtil();
+        util.loadFiltersAndVocab(multilingual, vocabPath, cachePath);
+        return util;
+    }
+
+    // What WhisperTensorflowLite does with every decoder result
+    @Benchmark
+    public StringBuilder appendText(EnglishVocab vocab) {
+        vocab.text.setLength(0);
+        vocab.whisperUtil.appendText(JFK_TOKENS, JFK_TOKENS.length, vocab.text);
+        return vocab.text;
+    }
+
+    // Per-token lookup as used by the logging/debug paths
+    @Benchmark
+    public void wordFromToken(EnglishVocab vocab, Blackhole blackhole) {
+        for (int token : JFK_TOKENS) {
+            blackhole.consume(vocab.whisperUtil.getWordFromToken(token));
+        }
+    }
+
+    // The token ids above are only meaningful for the English vocabulary
+    @State(Scope.Thread)
+    public static class EnglishVocab {
+        WhisperUtil whisperUtil;
+        final StringBuilder text = new StringBuilder();
+
+        @Setup
+        public void setUp() throws IOException {
+            whisperUtil = new WhisperUtil();
+            whisperUtil.loadFiltersAndVocab(false, AudioAssets.file("filters_vocab_en.bin").getPath());
+        }
+    }
+}
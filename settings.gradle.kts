@@ -21,3 +21,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "phonemateTry"
 include(":app")
+include(":benchmark")